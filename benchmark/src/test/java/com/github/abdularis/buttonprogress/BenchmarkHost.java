@@ -0,0 +1,32 @@
+package com.github.abdularis.buttonprogress;
+
+import android.content.Context;
+
+import androidx.test.core.app.ApplicationProvider;
+
+/**
+ * Buttons of the benchmarks are laid out but not attached to a window, so they do not schedule
+ * frames nor post anything while measured. Setups and benchmarks run on the main thread of the
+ * Robolectric sandbox, see {@link BenchmarkRunner}.
+ */
+final class BenchmarkHost {
+
+    // 48dp button on a xxhdpi screen
+    static final int SIZE = 144;
+
+    private BenchmarkHost() {
+    }
+
+    static Context getContext() {
+        return ApplicationProvider.getApplicationContext();
+    }
+
+    /**
+     * @return button laid out at {@link #SIZE}
+     */
+    static DownloadButtonProgress newButton() {
+        DownloadButtonProgress button = new DownloadButtonProgress(getContext());
+        button.layout(0, 0, SIZE, SIZE);
+        return button;
+    }
+}
@@ -0,0 +1,68 @@
+package com.github.abdularis.buttonprogress;
+
+import android.os.Looper;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.LooperMode;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Runs the JMH benchmarks of this module inside the Robolectric sandbox of this test. JMH can not
+ * fork a JVM with the sandbox, so the benchmarks run in process, started from another thread
+ * while this one, the main thread of the sandbox, runs the benchmark code posted to its looper by
+ * {@link MainThreadExecutor}. Run by the jmh task of the build script, which sets the system
+ * properties read here.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, qualifiers = "xxhdpi")
+@LooperMode(LooperMode.Mode.PAUSED)
+public class BenchmarkRunner {
+
+    private volatile Throwable mError;
+
+    @Test
+    public void runBenchmarks() throws Throwable {
+        final Options options = new OptionsBuilder()
+                .include(System.getProperty("jmh.include", ".*Benchmark"))
+                .forks(0)
+                .threads(1)
+                .warmupIterations(5)
+                .warmupTime(TimeValue.seconds(1))
+                .measurementIterations(5)
+                .measurementTime(TimeValue.seconds(1))
+                .mode(Mode.AverageTime)
+                .timeUnit(TimeUnit.NANOSECONDS)
+                .resultFormat(ResultFormatType.JSON)
+                .result(System.getProperty("jmh.resultsFile"))
+                .build();
+
+        Thread jmh = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    new Runner(options).run();
+                } catch (Throwable e) {
+                    mError = e;
+                }
+            }
+        }, "jmh");
+        jmh.start();
+        while (jmh.isAlive()) {
+            shadowOf(Looper.getMainLooper()).idle();
+            jmh.join(1);
+        }
+        if (mError != null) throw mError;
+    }
+}
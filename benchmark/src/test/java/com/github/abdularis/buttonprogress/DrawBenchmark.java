@@ -0,0 +1,44 @@
+package com.github.abdularis.buttonprogress;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of issuing one frame of a button in each state, with and without the static layer cache.
+ * The canvas records the draw calls, so this is the work done by the library per frame, not the
+ * rasterization (see StrokeModeBenchmark in the instrumented tests for that).
+ */
+@State(Scope.Thread)
+public class DrawBenchmark {
+
+    @Param({"1", "2", "3", "4"})
+    public int state;
+
+    @Param({"false", "true"})
+    public boolean layerCacheEnabled;
+
+    private DownloadButtonProgress mButton;
+    private final StubCanvas mCanvas = new StubCanvas();
+
+    @Setup
+    public void setUp() {
+        mButton = BenchmarkHost.newButton();
+        mButton.setLayerCacheEnabled(layerCacheEnabled);
+        switch (state) {
+            case DownloadButtonProgress.STATE_INDETERMINATE: mButton.setIndeterminate(); break;
+            case DownloadButtonProgress.STATE_DETERMINATE: mButton.setDeterminate(); break;
+            case DownloadButtonProgress.STATE_FINISHED: mButton.setFinish(); break;
+            default: mButton.setIdle(); break;
+        }
+        mButton.setCurrentProgress(42);
+    }
+
+    @Benchmark
+    public int onDraw() {
+        mButton.onDraw(mCanvas);
+        return mCanvas.getChecksum();
+    }
+}
@@ -0,0 +1,54 @@
+package com.github.abdularis.buttonprogress;
+
+import android.content.Context;
+import android.content.res.XmlResourceParser;
+import android.util.AttributeSet;
+import android.util.Xml;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.xmlpull.v1.XmlPullParser;
+
+/**
+ * Cost of creating a button from layout attributes, with and without the {@link StyleCache}.
+ * The layout is parsed once, so XML parsing is not part of the measure but resolving the
+ * attributes is (see InflationBenchmark in the instrumented tests for a whole inflation).
+ */
+@State(Scope.Thread)
+public class InflateBenchmark {
+
+    @Param({"false", "true"})
+    public boolean styleCacheEnabled;
+
+    private Context mContext;
+    private XmlResourceParser mParser;
+    private AttributeSet mAttributes;
+
+    @Setup
+    public void setUp() throws Exception {
+        StyleCache.getInstance().setEnabled(styleCacheEnabled);
+        mContext = BenchmarkHost.getContext();
+        mParser = mContext.getResources().getLayout(
+                com.github.abdularis.buttonprogress.benchmark.R.layout.benchmark_button);
+        int type;
+        do {
+            type = mParser.next();
+        } while (type != XmlPullParser.START_TAG && type != XmlPullParser.END_DOCUMENT);
+        mAttributes = Xml.asAttributeSet(mParser);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mParser.close();
+        StyleCache.getInstance().setEnabled(true);
+    }
+
+    @Benchmark
+    public DownloadButtonProgress inflate() {
+        return new DownloadButtonProgress(mContext, mAttributes);
+    }
+}
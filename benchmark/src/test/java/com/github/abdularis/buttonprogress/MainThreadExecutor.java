@@ -0,0 +1,62 @@
+package com.github.abdularis.buttonprogress;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executor of the JMH benchmark threads (see the jmh.executor properties of the build script)
+ * running the benchmark code on the main looper, so the library takes its main thread paths as on
+ * a device. Runnables posted by the library while measured run after the iteration, like on a busy
+ * main thread.
+ */
+public final class MainThreadExecutor extends AbstractExecutorService {
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private volatile boolean mShutdown;
+
+    /**
+     * Constructor called by JMH, the benchmarks run with a single thread
+     */
+    public MainThreadExecutor(int maxThreads, String prefix) {
+        if (maxThreads != 1) throw new IllegalArgumentException("Only one thread is supported: " + maxThreads);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        mHandler.post(command);
+    }
+
+    @Override
+    public void shutdown() {
+        mShutdown = true;
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        mShutdown = true;
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return mShutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return mShutdown;
+    }
+
+    /**
+     * JMH only shuts down once the tasks it submitted completed
+     */
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+        return mShutdown;
+    }
+}
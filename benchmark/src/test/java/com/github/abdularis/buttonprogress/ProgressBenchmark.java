@@ -0,0 +1,53 @@
+package com.github.abdularis.buttonprogress;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of a progress update on a determinate button: set from the main thread, published from
+ * the main thread (and so applied right away), and the packing math of published values.
+ * A small max makes nearly every update redraw, a large one makes most of them skipped by the
+ * change detection.
+ */
+@State(Scope.Thread)
+public class ProgressBenchmark {
+
+    private static final long LARGE_DOWNLOAD_BYTES = 5L * 1024 * 1024 * 1024;
+
+    @Param({"100", "100000"})
+    public int maxProgress;
+
+    private DownloadButtonProgress mButton;
+    private int mProgress;
+    private long mBytes;
+
+    @Setup
+    public void setUp() {
+        mButton = BenchmarkHost.newButton();
+        mButton.setDeterminate();
+        mButton.setMaxProgress(maxProgress);
+    }
+
+    @Benchmark
+    public int setCurrentProgress() {
+        mProgress = mProgress == maxProgress ? 0 : mProgress + 1;
+        mButton.setCurrentProgress(mProgress);
+        return mButton.getInvalidateCount();
+    }
+
+    @Benchmark
+    public int publishProgress() {
+        mProgress = mProgress == maxProgress ? 0 : mProgress + 1;
+        mButton.publishProgress(mProgress, maxProgress);
+        return mButton.getInvalidateCount();
+    }
+
+    @Benchmark
+    public long packProgress() {
+        mBytes = mBytes >= LARGE_DOWNLOAD_BYTES ? 0 : mBytes + 65536;
+        return DownloadButtonProgress.packProgress(mBytes, LARGE_DOWNLOAD_BYTES);
+    }
+}
@@ -0,0 +1,59 @@
+package com.github.abdularis.buttonprogress;
+
+import android.os.Parcel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Cost of saving a button instance state into a parcel and of restoring another button from it,
+ * with the full state and with the dynamic state only.
+ */
+@State(Scope.Thread)
+public class SavedStateBenchmark {
+
+    @Param({"false", "true"})
+    public boolean saveDynamicStateOnly;
+
+    private DownloadButtonProgress mButton;
+    private DownloadButtonProgress mRestored;
+    private Parcel mSaveParcel;
+    private Parcel mRestoreParcel;
+
+    @Setup
+    public void setUp() {
+        mButton = BenchmarkHost.newButton();
+        mButton.setSaveDynamicStateOnly(saveDynamicStateOnly);
+        mButton.setDeterminate();
+        mButton.setCurrentProgress(42);
+        mRestored = BenchmarkHost.newButton();
+
+        mSaveParcel = Parcel.obtain();
+        mRestoreParcel = Parcel.obtain();
+        mButton.onSaveInstanceState().writeToParcel(mRestoreParcel, 0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mSaveParcel.recycle();
+        mRestoreParcel.recycle();
+    }
+
+    @Benchmark
+    public int save() {
+        mSaveParcel.setDataPosition(0);
+        mButton.onSaveInstanceState().writeToParcel(mSaveParcel, 0);
+        return mSaveParcel.dataPosition();
+    }
+
+    @Benchmark
+    public int restore() {
+        mRestoreParcel.setDataPosition(0);
+        mRestored.onRestoreInstanceState(DownloadButtonProgress.SavedState.CREATOR.createFromParcel(mRestoreParcel));
+        return mRestored.getCurrentProgress();
+    }
+}
@@ -0,0 +1,53 @@
+package com.github.abdularis.buttonprogress;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of a chunked download: every chunk updated once, and all the chunks drawn. Updates do not
+ * depend on the calling thread, the redraw requested by the first change is posted to the main
+ * looper once and nothing draws the segments meanwhile. The canvas records the draw calls, see
+ * {@link DrawBenchmark}.
+ */
+@State(Scope.Thread)
+public class SegmentsBenchmark {
+
+    private static final long CHUNK_BYTES = 64L * 1024 * 1024;
+
+    @Param({"4", "16"})
+    public int segments;
+
+    private DownloadButtonProgress mButton;
+    private ProgressSegments mSegments;
+    private final StubCanvas mCanvas = new StubCanvas();
+    private long mBytes;
+
+    @Setup
+    public void setUp() {
+        mButton = BenchmarkHost.newButton();
+        mButton.setDeterminate();
+        mSegments = new ProgressSegments(segments);
+        for (int i = 0; i < segments; i++) {
+            mSegments.setProgress(i, CHUNK_BYTES / 2, CHUNK_BYTES);
+        }
+        mButton.setSegments(mSegments);
+    }
+
+    @Benchmark
+    public float update() {
+        mBytes = mBytes >= CHUNK_BYTES ? 0 : mBytes + 65536;
+        for (int i = 0; i < segments; i++) {
+            mSegments.setProgress(i, mBytes, CHUNK_BYTES);
+        }
+        return mSegments.getFraction(0);
+    }
+
+    @Benchmark
+    public int draw() {
+        mButton.onDraw(mCanvas);
+        return mCanvas.getChecksum();
+    }
+}
@@ -0,0 +1,43 @@
+package com.github.abdularis.buttonprogress;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of the 4 state changes of a download (spinner registration, progress reset, redraw
+ * request) with N state listeners.
+ */
+@State(Scope.Thread)
+public class StateTransitionBenchmark {
+
+    @Param({"0", "1", "8"})
+    public int listeners;
+
+    private DownloadButtonProgress mButton;
+    private int mNotifiedStates;
+
+    @Setup
+    public void setUp() {
+        mButton = BenchmarkHost.newButton();
+        for (int i = 0; i < listeners; i++) {
+            mButton.addOnStateChangedListeners(new DownloadButtonProgress.OnStateChangedListener() {
+                @Override
+                public void onStateChanged(int newState) {
+                    mNotifiedStates += newState;
+                }
+            });
+        }
+    }
+
+    @Benchmark
+    public int downloadCycle() {
+        mButton.setIndeterminate();
+        mButton.setDeterminate();
+        mButton.setFinish();
+        mButton.setIdle();
+        return mNotifiedStates;
+    }
+}
@@ -0,0 +1,78 @@
+package com.github.abdularis.buttonprogress;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
+import android.graphics.RectF;
+
+/**
+ * Canvas recording the draw calls made by the library and its icons instead of rasterizing them,
+ * so the benchmarks measure the work done by the library. The calls are counted and their
+ * arguments folded into a checksum returned by the benchmarks. Save, restore and matrix calls go
+ * to the Robolectric canvas.
+ */
+final class StubCanvas extends Canvas {
+
+    private int mDrawCount;
+    private int mChecksum;
+
+    int getDrawCount() {
+        return mDrawCount;
+    }
+
+    int getChecksum() {
+        return mChecksum;
+    }
+
+    @Override
+    public void drawArc(RectF oval, float startAngle, float sweepAngle, boolean useCenter, Paint paint) {
+        record(oval.centerX() + oval.width() + startAngle + sweepAngle, paint);
+    }
+
+    @Override
+    public void drawOval(RectF oval, Paint paint) {
+        record(oval.centerX() + oval.width(), paint);
+    }
+
+    @Override
+    public void drawCircle(float cx, float cy, float radius, Paint paint) {
+        record(cx + cy + radius, paint);
+    }
+
+    @Override
+    public void drawRect(RectF rect, Paint paint) {
+        record(rect.left + rect.top + rect.right + rect.bottom, paint);
+    }
+
+    @Override
+    public void drawRect(Rect r, Paint paint) {
+        record(r.left + r.top + r.right + r.bottom, paint);
+    }
+
+    @Override
+    public void drawRect(float left, float top, float right, float bottom, Paint paint) {
+        record(left + top + right + bottom, paint);
+    }
+
+    @Override
+    public void drawPath(Path path, Paint paint) {
+        record(path.isEmpty() ? 0 : 1, paint);
+    }
+
+    @Override
+    public void drawBitmap(Bitmap bitmap, float left, float top, Paint paint) {
+        record(bitmap.getWidth() + left + top, paint);
+    }
+
+    @Override
+    public void drawBitmap(Bitmap bitmap, Rect src, Rect dst, Paint paint) {
+        record(bitmap.getWidth() + dst.left + dst.top + dst.right + dst.bottom, paint);
+    }
+
+    private void record(float value, Paint paint) {
+        mDrawCount++;
+        mChecksum = 31 * mChecksum + Float.floatToIntBits(value) + (paint != null ? paint.getColor() : 0);
+    }
+}
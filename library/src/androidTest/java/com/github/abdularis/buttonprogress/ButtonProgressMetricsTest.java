@@ -0,0 +1,101 @@
+package com.github.abdularis.buttonprogress;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the metrics count draws and progress updates only while enabled, that a button
+ * counts each progress it is given once, and that only the transitions a button applies are
+ * counted.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ButtonProgressMetricsTest {
+
+    private static final int SIZE = 100;
+
+    @Before
+    public void setUp() {
+        ButtonProgressMetrics.reset();
+        ButtonProgressMetrics.setEnabled(true);
+    }
+
+    @After
+    public void tearDown() {
+        ButtonProgressMetrics.setEnabled(false);
+        ButtonProgressMetrics.reset();
+    }
+
+    @Test
+    public void countsDrawsAndProgress() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                DownloadProgressDrawable drawable = new DownloadProgressDrawable(
+                        InstrumentationRegistry.getInstrumentation().getTargetContext().getResources());
+                drawable.setBounds(0, 0, SIZE, SIZE);
+                Canvas canvas = new Canvas(Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888));
+
+                drawable.setState(DownloadProgressDrawable.STATE_DETERMINATE);
+                drawable.setProgress(50);
+                drawable.draw(canvas);
+                drawable.setProgress(50);
+                drawable.draw(canvas);
+
+                ButtonProgressMetrics.setEnabled(false);
+                drawable.draw(canvas);
+            }
+        });
+
+        ButtonProgressMetrics.Snapshot snapshot = ButtonProgressMetrics.snapshot();
+        assertEquals(2, snapshot.getDrawCount(DownloadProgressDrawable.STATE_DETERMINATE));
+        assertTrue(snapshot.getDrawNanos(DownloadProgressDrawable.STATE_DETERMINATE) > 0);
+        assertEquals(2, snapshot.getProgressReceivedCount());
+        assertEquals(1, snapshot.getProgressRenderedCount());
+        assertEquals(1, snapshot.getSkippedInvalidateCount());
+        // a state set on the drawable is not a transition
+        assertEquals(0, snapshot.getTransitionCount(DownloadProgressDrawable.STATE_IDLE,
+                DownloadProgressDrawable.STATE_DETERMINATE));
+    }
+
+    @Test
+    public void buttonCountsEveryProgressOnce() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                DownloadButtonProgress button = new DownloadButtonProgress(
+                        InstrumentationRegistry.getInstrumentation().getTargetContext());
+                button.setDeterminate();
+                button.setDeterminate();
+                for (int i = 0; i < 12; i++) {
+                    // repeated values are received all the same
+                    button.setCurrentProgress(i / 2 * 10);
+                }
+                button.setMaxProgress(200);
+                button.setFinish();
+                // rejected, finished only goes back to idle
+                button.setDeterminate();
+                button.setIdle();
+            }
+        });
+
+        ButtonProgressMetrics.Snapshot snapshot = ButtonProgressMetrics.snapshot();
+        assertEquals(12, snapshot.getProgressReceivedCount());
+        assertEquals(1, snapshot.getTransitionCount(DownloadProgressDrawable.STATE_IDLE,
+                DownloadProgressDrawable.STATE_DETERMINATE));
+        assertEquals(0, snapshot.getTransitionCount(DownloadProgressDrawable.STATE_FINISHED,
+                DownloadProgressDrawable.STATE_DETERMINATE));
+        assertEquals(1, snapshot.getTransitionCount(DownloadProgressDrawable.STATE_DETERMINATE,
+                DownloadProgressDrawable.STATE_FINISHED));
+    }
+}
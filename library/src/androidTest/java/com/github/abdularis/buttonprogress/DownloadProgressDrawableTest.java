@@ -0,0 +1,310 @@
+package com.github.abdularis.buttonprogress;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+import android.view.View;
+import android.widget.FrameLayout;
+import android.widget.ImageView;
+
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the drawable looks the same whatever hosts it, that a bare drawable redraws
+ * through its callback, that progress changes only redraw the ring when the arc visibly moves, that
+ * the static layer is only rendered again when it changes, and that chunks are drawn as arcs.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DownloadProgressDrawableTest {
+
+    private static final int SIZE = 100;
+
+    private ActivityScenario<TestActivity> mScenario;
+    private DownloadButtonProgress mButton;
+    private ImageView mImageView;
+    private DownloadProgressDrawable mDrawable;
+
+    @Before
+    public void setUp() {
+        mScenario = ActivityScenario.launch(TestActivity.class);
+        mScenario.onActivity(new ActivityScenario.ActivityAction<TestActivity>() {
+            @Override
+            public void perform(TestActivity activity) {
+                mButton = new DownloadButtonProgress(activity);
+                mDrawable = new DownloadProgressDrawable(mButton.getStyle());
+                mImageView = new ImageView(activity);
+                // drawable bounds are the view bounds, like in the button
+                mImageView.setScaleType(ImageView.ScaleType.FIT_XY);
+                mImageView.setImageDrawable(mDrawable);
+
+                activity.getContainer().addView(mButton, new FrameLayout.LayoutParams(SIZE, SIZE));
+                activity.getContainer().addView(mImageView, new FrameLayout.LayoutParams(SIZE, SIZE));
+            }
+        });
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+    }
+
+    @After
+    public void tearDown() {
+        mScenario.close();
+    }
+
+    @Test
+    public void rendersTheSameInImageViewAndButton() {
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                assertTrue(render(mButton).sameAs(render(mImageView)));
+
+                mButton.setDeterminate();
+                mButton.setCurrentProgress(25);
+                mDrawable.setState(DownloadProgressDrawable.STATE_DETERMINATE);
+                mDrawable.setProgress(25);
+                assertTrue(render(mButton).sameAs(render(mImageView)));
+
+                mButton.setFinish();
+                mDrawable.setState(DownloadProgressDrawable.STATE_FINISHED);
+                assertTrue(render(mButton).sameAs(render(mImageView)));
+            }
+        });
+    }
+
+    @Test
+    public void bareDrawableInvalidatesThroughCallback() {
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                DownloadProgressDrawable drawable = new DownloadProgressDrawable(mButton.getStyle());
+                drawable.setBounds(0, 0, SIZE, SIZE);
+                CountingCallback callback = new CountingCallback();
+                drawable.setCallback(callback);
+
+                drawable.setState(DownloadProgressDrawable.STATE_DETERMINATE);
+                assertEquals(1, callback.mInvalidations);
+
+                drawable.setProgress(50);
+                assertEquals(2, callback.mInvalidations);
+
+                drawable.setState(DownloadProgressDrawable.STATE_IDLE);
+                assertEquals(3, callback.mInvalidations);
+            }
+        });
+    }
+
+    @Test
+    public void skipsProgressChangesBelowOnePixel() {
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                DownloadProgressDrawable drawable = newRingDrawable();
+                CountingCallback callback = new CountingCallback();
+                drawable.setCallback(callback);
+                Canvas canvas = new Canvas(Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888));
+
+                drawable.setState(DownloadProgressDrawable.STATE_DETERMINATE);
+                drawable.setMaxProgress(10000);
+                drawable.draw(canvas);
+                int invalidations = callback.mInvalidations;
+
+                // ring radius is 41px, a pixel along it is about 1.4 degrees
+                drawable.setProgress(30);
+                assertEquals(invalidations, callback.mInvalidations);
+                assertEquals(1, drawable.getSkippedInvalidateCount());
+
+                drawable.setProgress(100);
+                assertEquals(invalidations + 1, callback.mInvalidations);
+                drawable.draw(canvas);
+
+                drawable.setProgress(110);
+                assertEquals(invalidations + 1, callback.mInvalidations);
+                assertEquals(2, drawable.getSkippedInvalidateCount());
+
+                // reaching the end is always drawn
+                drawable.setProgress(10000);
+                assertEquals(invalidations + 2, callback.mInvalidations);
+            }
+        });
+    }
+
+    @Test
+    public void progressInvalidatesOnlyTheRing() {
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                DownloadProgressDrawable drawable = newRingDrawable();
+                CountingCallback callback = new CountingCallback();
+                drawable.setCallback(callback);
+
+                drawable.setState(DownloadProgressDrawable.STATE_DETERMINATE);
+                assertEquals(new Rect(0, 0, SIZE, SIZE), callback.mDirtyBounds);
+
+                // ring rect inset by margin + half the stroke, dirty rect outset by half the stroke + 1
+                drawable.setProgress(50);
+                assertEquals(new Rect(4, 4, SIZE - 4, SIZE - 4), callback.mDirtyBounds);
+
+                drawable.setState(DownloadProgressDrawable.STATE_IDLE);
+                assertEquals(new Rect(0, 0, SIZE, SIZE), callback.mDirtyBounds);
+            }
+        });
+    }
+
+    @Test
+    public void reusesStaticLayerUntilStyleOrBoundsChange() {
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                CountingDrawable background = new CountingDrawable();
+                DownloadProgressDrawable drawable = new DownloadProgressDrawable(mButton.getStyle().buildUpon()
+                        .setDeterminateBgDrawable(background)
+                        .build());
+                drawable.setBounds(0, 0, SIZE, SIZE);
+                drawable.setLayerCacheEnabled(true);
+                drawable.setState(DownloadProgressDrawable.STATE_DETERMINATE);
+                Bitmap bitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+                Canvas canvas = new Canvas(bitmap);
+
+                for (int progress = 0; progress <= 100; progress += 10) {
+                    drawable.setProgress(progress);
+                    drawable.draw(canvas);
+                }
+                assertEquals(1, background.mDrawCount);
+
+                drawable.setProgressDeterminateColor(0xFFFF0000);
+                drawable.draw(canvas);
+                assertEquals(2, background.mDrawCount);
+
+                drawable.setBounds(0, 0, SIZE / 2, SIZE / 2);
+                drawable.draw(canvas);
+                drawable.draw(canvas);
+                assertEquals(3, background.mDrawCount);
+
+                // the cached layer looks like drawing everything
+                Bitmap direct = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+                drawable.setLayerCacheEnabled(false);
+                drawable.draw(new Canvas(direct));
+                bitmap.eraseColor(0);
+                drawable.setLayerCacheEnabled(true);
+                drawable.draw(canvas);
+                assertTrue(direct.sameAs(bitmap));
+            }
+        });
+    }
+
+    @Test
+    public void drawsOneArcPerSegment() {
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                DownloadProgressDrawable drawable = newRingDrawable();
+                drawable.setProgressDeterminateColor(0xFF00FF00);
+                drawable.setState(DownloadProgressDrawable.STATE_DETERMINATE);
+
+                // each of the 4 chunks owns a quarter of the ring, clockwise from the top
+                ProgressSegments segments = new ProgressSegments(4);
+                segments.setProgress(0, 100, 100);
+                segments.setProgress(2, 50, 100);
+                segments.setProgress(3, 10, 100);
+                drawable.setSegments(segments);
+
+                Bitmap bitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+                drawable.draw(new Canvas(bitmap));
+
+                assertTrue(isOnArc(bitmap, -45));
+                assertFalse(isOnArc(bitmap, 45));
+                assertTrue(isOnArc(bitmap, 110));
+                assertFalse(isOnArc(bitmap, 160));
+                assertTrue(isOnArc(bitmap, 182));
+                assertFalse(isOnArc(bitmap, 225));
+
+                // back to the progress once the segments are removed
+                drawable.setSegments(null);
+                drawable.setProgress(100);
+                drawable.draw(new Canvas(bitmap));
+                assertTrue(isOnArc(bitmap, 45));
+            }
+        });
+    }
+
+    /**
+     * @return whether the middle of the 8px ring of a {@link #newRingDrawable()} is drawn with the
+     * determinate color at degrees, clockwise from 3 o'clock
+     */
+    private static boolean isOnArc(Bitmap bitmap, float degrees) {
+        // ring radius: half the size minus the margin and half the stroke
+        double radius = SIZE / 2.0 - 5 - 4;
+        double radians = Math.toRadians(degrees);
+        int x = (int) Math.round(SIZE / 2.0 + radius * Math.cos(radians));
+        int y = (int) Math.round(SIZE / 2.0 + radius * Math.sin(radians));
+        return bitmap.getPixel(x, y) == 0xFF00FF00;
+    }
+
+    /**
+     * @return drawable of SIZE with a 5px margin and a 8px thick ring
+     */
+    private DownloadProgressDrawable newRingDrawable() {
+        DownloadProgressDrawable drawable = new DownloadProgressDrawable(mButton.getStyle().buildUpon()
+                .setProgressMargin(5)
+                .setProgressWidth(8)
+                .build());
+        drawable.setBounds(0, 0, SIZE, SIZE);
+        return drawable;
+    }
+
+    private static Bitmap render(View view) {
+        Bitmap bitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        view.draw(new Canvas(bitmap));
+        return bitmap;
+    }
+
+    private static void runOnMainSync(Runnable runnable) {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(runnable);
+    }
+
+    private static final class CountingDrawable extends ColorDrawable {
+
+        int mDrawCount;
+
+        CountingDrawable() {
+            super(0xFF0000FF);
+        }
+
+        @Override
+        public void draw(Canvas canvas) {
+            mDrawCount++;
+            super.draw(canvas);
+        }
+    }
+
+    private static final class CountingCallback implements Drawable.Callback {
+
+        final Rect mDirtyBounds = new Rect();
+        int mInvalidations;
+
+        @Override
+        public void invalidateDrawable(Drawable who) {
+            mInvalidations++;
+            mDirtyBounds.set(who.getDirtyBounds());
+        }
+
+        @Override
+        public void scheduleDrawable(Drawable who, Runnable what, long when) {
+        }
+
+        @Override
+        public void unscheduleDrawable(Drawable who, Runnable what) {
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.github.abdularis.buttonprogress;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that bitmaps are shared by resource, size and tint, and that the budget is measured in
+ * bytes.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DrawableCacheTest {
+
+    private final DrawableCache mCache = DrawableCache.getInstance();
+    private Resources mResources;
+    private int mMaxSize;
+
+    @Before
+    public void setUp() {
+        mResources = InstrumentationRegistry.getInstrumentation().getTargetContext().getResources();
+        mMaxSize = mCache.getMaxSize();
+        mCache.clear();
+    }
+
+    @After
+    public void tearDown() {
+        mCache.setMaxSize(mMaxSize);
+        mCache.clear();
+    }
+
+    @Test
+    public void sharesBitmapsBySizeAndTint() {
+        Bitmap bitmap = mCache.getBitmap(mResources, R.drawable.ic_default_download, 48, 48, 0xFFFF0000);
+        assertSame(bitmap, mCache.getBitmap(mResources, R.drawable.ic_default_download, 48, 48, 0xFFFF0000));
+        assertNotSame(bitmap, mCache.getBitmap(mResources, R.drawable.ic_default_download, 48, 48, 0xFF00FF00));
+        assertNotSame(bitmap, mCache.getBitmap(mResources, R.drawable.ic_default_download, 96, 96, 0xFFFF0000));
+
+        assertEquals(48, bitmap.getWidth());
+        assertTrue(isTintedWith(bitmap, 0xFFFF0000));
+    }
+
+    @Test
+    public void budgetIsInBytes() {
+        mCache.getDrawable(mResources, R.drawable.ic_default_download);
+        int drawableSize = mCache.getSize();
+        assertTrue(drawableSize > 0);
+
+        Bitmap small = mCache.getBitmap(mResources, R.drawable.ic_default_download, 48, 48, 0);
+        assertEquals(drawableSize + small.getByteCount(), mCache.getSize());
+
+        // room for the small bitmap only, the large one evicts everything else
+        mCache.setMaxSize(drawableSize + small.getByteCount());
+        mCache.getBitmap(mResources, R.drawable.ic_default_download, 96, 96, 0);
+        assertTrue(mCache.getEvictionCount() >= 2);
+        assertTrue(mCache.getSize() <= mCache.getMaxSize());
+        assertNotSame(small, mCache.getBitmap(mResources, R.drawable.ic_default_download, 48, 48, 0));
+    }
+
+    /**
+     * @return whether every opaque pixel of bitmap has the color of tint, and some are opaque
+     */
+    private static boolean isTintedWith(Bitmap bitmap, int tint) {
+        boolean drawn = false;
+        for (int y = 0; y < bitmap.getHeight(); y++) {
+            for (int x = 0; x < bitmap.getWidth(); x++) {
+                int pixel = bitmap.getPixel(x, y);
+                // edges are anti-aliased
+                if (pixel >>> 24 != 0xFF) continue;
+                if ((pixel & 0xFFFFFF) != (tint & 0xFFFFFF)) return false;
+                drawn = true;
+            }
+        }
+        return drawn;
+    }
+}
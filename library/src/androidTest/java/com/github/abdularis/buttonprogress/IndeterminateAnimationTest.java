@@ -0,0 +1,366 @@
+package com.github.abdularis.buttonprogress;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.os.Build;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.view.PixelCopy;
+import android.view.View;
+import android.view.Window;
+import android.widget.FrameLayout;
+
+import androidx.lifecycle.Lifecycle;
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks that the indeterminate spinner only schedules frames while the button can be seen, that
+ * a capped spinner only runs frame callbacks at its own rate, that a spinning button does not
+ * allocate per frame, and that a spinner turned by the RenderThread needs no main thread at all.
+ */
+@RunWith(AndroidJUnit4.class)
+public class IndeterminateAnimationTest {
+
+    private static final long FRAME_NANOS = 16666667;
+    private static final int WARM_UP_FRAMES = 60;
+    private static final int MEASURED_FRAMES = 600;
+
+    private ActivityScenario<TestActivity> mScenario;
+    private Window mWindow;
+    private FrameLayout mContainer;
+    private DownloadButtonProgress mButton;
+
+    @Before
+    public void setUp() {
+        mScenario = ActivityScenario.launch(TestActivity.class);
+        mScenario.onActivity(new ActivityScenario.ActivityAction<TestActivity>() {
+            @Override
+            public void perform(TestActivity activity) {
+                mWindow = activity.getWindow();
+                mContainer = activity.getContainer();
+                mButton = new DownloadButtonProgress(activity);
+                // test devices often run with animations turned off
+                MotionPolicy.getInstance().setForcedMode(MotionPolicy.MODE_FULL);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                MotionPolicy.getInstance().setForcedMode(MotionPolicy.NO_FORCED_MODE);
+                ButtonProgressMetrics.setEnabled(false);
+            }
+        });
+        mScenario.close();
+    }
+
+    @Test
+    public void notRunningUntilAttached() {
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mButton.setIndeterminate();
+            }
+        });
+        assertFalse(mButton.isIndeterminateAnimationRunning());
+
+        attach();
+        assertTrue(mButton.isIndeterminateAnimationRunning());
+    }
+
+    @Test
+    public void stopsOnEveryStateLeavingIndeterminate() {
+        attach();
+
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mButton.setIndeterminate();
+                assertTrue(mButton.isIndeterminateAnimationRunning());
+                mButton.setIdle();
+                assertFalse(mButton.isIndeterminateAnimationRunning());
+
+                mButton.setIndeterminate();
+                mButton.setFinish();
+                assertFalse(mButton.isIndeterminateAnimationRunning());
+
+                mButton.setIndeterminate();
+                mButton.setDeterminate();
+                assertFalse(mButton.isIndeterminateAnimationRunning());
+            }
+        });
+    }
+
+    @Test
+    public void pausesWhileHiddenAndResumesWhenShown() {
+        attach();
+
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mButton.setIndeterminate();
+
+                mButton.setVisibility(View.GONE);
+                assertFalse(mButton.isIndeterminateAnimationRunning());
+                mButton.setVisibility(View.VISIBLE);
+                assertTrue(mButton.isIndeterminateAnimationRunning());
+
+                mButton.setVisibility(View.INVISIBLE);
+                assertFalse(mButton.isIndeterminateAnimationRunning());
+                mButton.setVisibility(View.VISIBLE);
+
+                mContainer.setVisibility(View.INVISIBLE);
+                assertFalse(mButton.isIndeterminateAnimationRunning());
+                mContainer.setVisibility(View.VISIBLE);
+                assertTrue(mButton.isIndeterminateAnimationRunning());
+            }
+        });
+    }
+
+    @Test
+    public void stopsWhenDetached() {
+        attach();
+
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mButton.setIndeterminate();
+                mContainer.removeView(mButton);
+                assertFalse(mButton.isIndeterminateAnimationRunning());
+            }
+        });
+    }
+
+    @Test
+    public void stopsWhenWindowIsHidden() {
+        attach();
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mButton.setIndeterminate();
+            }
+        });
+
+        mScenario.moveToState(Lifecycle.State.CREATED);
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+        assertFalse(mButton.isIndeterminateAnimationRunning());
+
+        mScenario.moveToState(Lifecycle.State.RESUMED);
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+        assertTrue(mButton.isIndeterminateAnimationRunning());
+    }
+
+    @Test
+    public void standsStillWhileAnimationsAreOff() {
+        attach();
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mButton.setIndeterminate();
+                assertTrue(mButton.isIndeterminateAnimationRunning());
+
+                MotionPolicy.getInstance().setForcedMode(MotionPolicy.MODE_STATIC);
+                assertFalse(mButton.isIndeterminateAnimationRunning());
+
+                MotionPolicy.getInstance().setForcedMode(MotionPolicy.MODE_LOW_POWER);
+                assertTrue(mButton.isIndeterminateAnimationRunning());
+            }
+        });
+    }
+
+    @Test
+    public void cappedSpinnerSkipsVsyncs() {
+        attach();
+        final int[] frameCount = new int[1];
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mButton.setSpinnerMaxFrameRate(10);
+                mButton.setIndeterminate();
+                frameCount[0] = FrameClock.getInstance().getFrameCount();
+            }
+        });
+
+        SystemClock.sleep(1000);
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                int frames = FrameClock.getInstance().getFrameCount() - frameCount[0];
+                // 10 frames plus jitter, instead of one callback per vsync
+                assertTrue(frames + " frame callbacks", frames <= 15);
+                assertTrue(mButton.isIndeterminateAnimationRunning());
+            }
+        });
+    }
+
+    @Test
+    public void steadyStateSpinnerDoesNotAllocate() {
+        attach();
+
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mButton.setIndeterminate();
+
+                Canvas canvas = new Canvas(Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888));
+                FrameClock clock = FrameClock.getInstance();
+                long frameTime = System.nanoTime();
+
+                for (int i = 0; i < WARM_UP_FRAMES; i++) {
+                    frameTime += FRAME_NANOS;
+                    clock.dispatchFrame(frameTime);
+                    mButton.onDraw(canvas);
+                }
+
+                Debug.resetThreadAllocCount();
+                Debug.startAllocCounting();
+                for (int i = 0; i < MEASURED_FRAMES; i++) {
+                    frameTime += FRAME_NANOS;
+                    clock.dispatchFrame(frameTime);
+                    mButton.onDraw(canvas);
+                }
+                Debug.stopAllocCounting();
+
+                assertEquals(0, Debug.getThreadAllocCount());
+            }
+        });
+    }
+
+    @Test
+    public void hardwareSpinDrawsTheSameArcOnSoftwareCanvas() {
+        attach();
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mButton.setIndeterminate();
+                FrameClock.getInstance().dispatchFrame(System.nanoTime());
+
+                Bitmap expected = Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888);
+                mButton.onDraw(new Canvas(expected));
+
+                // software canvases have no render node, the arc is drawn directly
+                mButton.setHardwareSpinEnabled(true);
+                Bitmap actual = Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888);
+                mButton.onDraw(new Canvas(actual));
+
+                assertTrue(expected.sameAs(actual));
+            }
+        });
+    }
+
+    @Test
+    public void hardwareSpinDrawsNothingPerFrame() {
+        assumeTrue(Build.VERSION.SDK_INT >= Build.VERSION_CODES.N_MR1);
+        startHardwareSpin();
+
+        ButtonProgressMetrics.reset();
+        SystemClock.sleep(500);
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                assertTrue(mButton.isIndeterminateAnimationRunning());
+                assertEquals(0, ButtonProgressMetrics.snapshot().getDrawCount(DownloadProgressDrawable.STATE_INDETERMINATE));
+                assertEquals(0, ButtonProgressMetrics.snapshot().getInvalidateCount());
+            }
+        });
+    }
+
+    @Test
+    public void hardwareSpinTurnsWhileMainThreadIsBusy() throws InterruptedException {
+        assumeTrue(Build.VERSION.SDK_INT >= Build.VERSION_CODES.O);
+        startHardwareSpin();
+
+        final CountDownLatch stalled = new CountDownLatch(1);
+        mButton.post(new Runnable() {
+            @Override
+            public void run() {
+                stalled.countDown();
+                SystemClock.sleep(1000);
+            }
+        });
+        assertTrue(stalled.await(1, TimeUnit.SECONDS));
+
+        // the window content is copied by the RenderThread, the main thread is sleeping meanwhile
+        HandlerThread copyThread = new HandlerThread("PixelCopy");
+        copyThread.start();
+        try {
+            Handler handler = new Handler(copyThread.getLooper());
+            Bitmap first = copyButton(handler);
+            SystemClock.sleep(250);
+            Bitmap second = copyButton(handler);
+            assertFalse(first.sameAs(second));
+        } finally {
+            copyThread.quit();
+        }
+    }
+
+    private void startHardwareSpin() {
+        attach();
+        ButtonProgressMetrics.setEnabled(true);
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mButton.setHardwareSpinEnabled(true);
+                mButton.setIndeterminate();
+            }
+        });
+        // the first draw hands the spinner over to the RenderThread
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+        SystemClock.sleep(100);
+    }
+
+    private Bitmap copyButton(Handler handler) throws InterruptedException {
+        int[] location = new int[2];
+        mButton.getLocationInWindow(location);
+        Rect rect = new Rect(location[0], location[1], location[0] + mButton.getWidth(), location[1] + mButton.getHeight());
+        Bitmap bitmap = Bitmap.createBitmap(rect.width(), rect.height(), Bitmap.Config.ARGB_8888);
+
+        final CountDownLatch copied = new CountDownLatch(1);
+        final int[] result = new int[1];
+        PixelCopy.request(mWindow, rect, bitmap, new PixelCopy.OnPixelCopyFinishedListener() {
+            @Override
+            public void onPixelCopyFinished(int copyResult) {
+                result[0] = copyResult;
+                copied.countDown();
+            }
+        }, handler);
+        assertTrue(copied.await(1, TimeUnit.SECONDS));
+        assertEquals(PixelCopy.SUCCESS, result[0]);
+        return bitmap;
+    }
+
+    private void attach() {
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mContainer.addView(mButton, new FrameLayout.LayoutParams(100, 100));
+            }
+        });
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+    }
+
+    private static void runOnMainSync(Runnable runnable) {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(runnable);
+    }
+}
@@ -0,0 +1,68 @@
+package com.github.abdularis.buttonprogress;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.util.Log;
+import android.view.LayoutInflater;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Measures the time to inflate 1000 buttons from a layout with and without the {@link StyleCache}.
+ * Results are reported as instrumentation status (and logged), they are not asserted since they
+ * depend on the device.
+ */
+@RunWith(AndroidJUnit4.class)
+public class InflationBenchmark {
+
+    private static final String TAG = "InflationBenchmark";
+    private static final int WARM_UP_BUTTONS = 100;
+    private static final int MEASURED_BUTTONS = 1000;
+
+    @After
+    public void tearDown() {
+        StyleCache.getInstance().setEnabled(true);
+    }
+
+    @Test
+    public void compareInflation() {
+        final Bundle results = new Bundle();
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                long uncached = measureInflationNanos(false);
+                long cached = measureInflationNanos(true);
+
+                Log.i(TAG, "inflating " + MEASURED_BUTTONS + " buttons, uncached: " + uncached / 1000
+                        + " us, cached: " + cached / 1000 + " us");
+                results.putLong("uncached_inflation_ns", uncached);
+                results.putLong("cached_inflation_ns", cached);
+            }
+        });
+
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, results);
+    }
+
+    private static long measureInflationNanos(boolean cacheEnabled) {
+        StyleCache.getInstance().setEnabled(cacheEnabled);
+        // the layout is part of the test apk, which also contains the library resources
+        Context context = InstrumentationRegistry.getInstrumentation().getContext();
+        LayoutInflater inflater = LayoutInflater.from(context);
+
+        for (int i = 0; i < WARM_UP_BUTTONS; i++) {
+            inflater.inflate(com.github.abdularis.buttonprogress.test.R.layout.benchmark_button_progress, null);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_BUTTONS; i++) {
+            inflater.inflate(com.github.abdularis.buttonprogress.test.R.layout.benchmark_button_progress, null);
+        }
+        return System.nanoTime() - start;
+    }
+}
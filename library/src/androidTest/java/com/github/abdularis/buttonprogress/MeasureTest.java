@@ -0,0 +1,77 @@
+package com.github.abdularis.buttonprogress;
+
+import android.widget.FrameLayout;
+
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that wrap content measures the intrinsic size of the drawable and that only size changing
+ * style updates request a layout.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MeasureTest {
+
+    private ActivityScenario<TestActivity> mScenario;
+    private DownloadButtonProgress mButton;
+
+    @Before
+    public void setUp() {
+        mScenario = ActivityScenario.launch(TestActivity.class);
+        mScenario.onActivity(new ActivityScenario.ActivityAction<TestActivity>() {
+            @Override
+            public void perform(TestActivity activity) {
+                mButton = new DownloadButtonProgress(activity);
+                activity.getContainer().addView(mButton, new FrameLayout.LayoutParams(
+                        FrameLayout.LayoutParams.WRAP_CONTENT, FrameLayout.LayoutParams.WRAP_CONTENT));
+            }
+        });
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+    }
+
+    @After
+    public void tearDown() {
+        mScenario.close();
+    }
+
+    @Test
+    public void wrapContentUsesIntrinsicSize() {
+        DownloadProgressDrawable drawable = mButton.getProgressDrawable();
+        assertEquals(drawable.getIntrinsicWidth(), mButton.getWidth());
+        assertEquals(drawable.getIntrinsicHeight(), mButton.getHeight());
+    }
+
+    @Test
+    public void stateAndProgressChangesDoNotRequestLayout() {
+        runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mButton.setIndeterminate();
+                mButton.setDeterminate();
+                mButton.setCurrentProgress(50);
+                mButton.setProgressDeterminateColor(0xFFFF0000);
+                mButton.setFinish();
+                assertFalse(mButton.isLayoutRequested());
+
+                mButton.setIdleIconWidth(mButton.getIdleIconWidth() + 10);
+                assertTrue(mButton.isLayoutRequested());
+            }
+        });
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+        assertEquals(mButton.getProgressDrawable().getIntrinsicWidth(), mButton.getWidth());
+    }
+
+    private static void runOnMainSync(Runnable runnable) {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(runnable);
+    }
+}
@@ -0,0 +1,92 @@
+package com.github.abdularis.buttonprogress;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that rendered frames look like the drawable, that quantized frames come from the cache
+ * and that drawables which can not be copied are rejected.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProgressFrameRendererTest {
+
+    private static final int SIZE = 96;
+
+    private ButtonProgressStyle mStyle;
+
+    @Before
+    public void setUp() {
+        Resources res = InstrumentationRegistry.getInstrumentation().getTargetContext().getResources();
+        mStyle = new ButtonProgressStyle.Builder(res).build();
+    }
+
+    @Test
+    public void rendersLikeTheDrawable() {
+        final Bitmap expected = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                DownloadProgressDrawable drawable = new DownloadProgressDrawable(mStyle);
+                drawable.setBounds(0, 0, SIZE, SIZE);
+                drawable.setState(DownloadProgressDrawable.STATE_DETERMINATE);
+                drawable.setMaxProgress(100);
+                drawable.setProgress(25);
+                drawable.draw(new Canvas(expected));
+            }
+        });
+
+        // off the main thread, like a download service would
+        ProgressFrameRenderer renderer = new ProgressFrameRenderer(mStyle, SIZE, SIZE);
+        assertTrue(expected.sameAs(renderer.getFrame(DownloadProgressDrawable.STATE_DETERMINATE, 25, 100)));
+    }
+
+    @Test
+    public void reusesQuantizedFrames() {
+        ProgressFrameRenderer renderer = new ProgressFrameRenderer(mStyle, SIZE, SIZE, 10, 8);
+
+        Bitmap frame = renderer.getDeterminateFrame(500, 1000);
+        assertSame(frame, renderer.getDeterminateFrame(599, 1000));
+        assertNotSame(frame, renderer.getDeterminateFrame(600, 1000));
+        assertSame(renderer.getSpinnerFrame(1), renderer.getSpinnerFrame(9));
+        assertEquals(2, renderer.getHitCount());
+        assertEquals(3, renderer.getMissCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDrawableWithoutConstantState() {
+        Drawable shared = new ColorDrawable(0xFF00FF00) {
+            @Override
+            public ConstantState getConstantState() {
+                return null;
+            }
+        };
+        new ProgressFrameRenderer(mStyle.buildUpon().setIdleIcon(shared).build(), SIZE, SIZE);
+    }
+
+    @Test
+    public void staysWithinMaxSize() {
+        ProgressFrameRenderer renderer = new ProgressFrameRenderer(mStyle, SIZE, SIZE);
+        int frameSize = SIZE * SIZE * 4;
+        renderer.setMaxSize(frameSize * 4);
+
+        for (int i = 0; i <= 100; i++) {
+            renderer.getDeterminateFrame(i, 100);
+        }
+        assertEquals(frameSize * 4, renderer.getSize());
+    }
+}
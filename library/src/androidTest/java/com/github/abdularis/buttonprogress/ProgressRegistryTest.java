@@ -0,0 +1,176 @@
+package com.github.abdularis.buttonprogress;
+
+import android.os.SystemClock;
+import android.widget.FrameLayout;
+
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a registry restores bound buttons silently, only forwards updates of their own id
+ * and takes back the transitions made on them, and that a detached button still follows the
+ * values published to it.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProgressRegistryTest {
+
+    private static final long TIMEOUT_MILLIS = 1000;
+
+    private ActivityScenario<TestActivity> mScenario;
+    private DownloadButtonProgress mButton;
+    private final ProgressRegistry mRegistry = new ProgressRegistry();
+    private int mStateChangedCount;
+
+    @Before
+    public void setUp() {
+        mScenario = ActivityScenario.launch(TestActivity.class);
+        mScenario.onActivity(new ActivityScenario.ActivityAction<TestActivity>() {
+            @Override
+            public void perform(TestActivity activity) {
+                mButton = new DownloadButtonProgress(activity);
+                mButton.addOnStateChangedListeners(new DownloadButtonProgress.OnStateChangedListener() {
+                    @Override
+                    public void onStateChanged(int newState) {
+                        mStateChangedCount++;
+                    }
+                });
+                activity.getContainer().addView(mButton, new FrameLayout.LayoutParams(100, 100));
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mScenario.close();
+    }
+
+    @Test
+    public void bindRestoresStateWithoutNotifyingListeners() {
+        mRegistry.setState(1, DownloadButtonProgress.STATE_DETERMINATE);
+        mRegistry.setProgress(1, 40, 200);
+
+        bind(1);
+        assertEquals(DownloadButtonProgress.STATE_DETERMINATE, mButton.getCurrState());
+        assertEquals(40, mButton.getCurrentProgress());
+        assertEquals(200, mButton.getMaxProgress());
+        assertEquals(0, mStateChangedCount);
+    }
+
+    @Test
+    public void updatesReachOnlyTheBoundButton() {
+        bind(1);
+        mRegistry.setState(2, DownloadButtonProgress.STATE_FINISHED);
+        mRegistry.setState(1, DownloadButtonProgress.STATE_DETERMINATE);
+        mRegistry.setProgress(1, 30, 100);
+        awaitProgress(30);
+
+        assertEquals(DownloadButtonProgress.STATE_DETERMINATE, mButton.getCurrState());
+        assertEquals(DownloadButtonProgress.STATE_FINISHED, mRegistry.getState(2));
+
+        bind(2);
+        mRegistry.setState(1, DownloadButtonProgress.STATE_IDLE);
+        // published values are applied on the next frame, give it a few
+        SystemClock.sleep(100);
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+        assertEquals(DownloadButtonProgress.STATE_FINISHED, mButton.getCurrState());
+    }
+
+    @Test
+    public void keepsEntriesAcrossGrowthAndRemoval() {
+        int count = 10000;
+        for (int id = 0; id < count; id++) {
+            mRegistry.setState(id * 7919L, DownloadButtonProgress.STATE_DETERMINATE);
+            mRegistry.setProgress(id * 7919L, id, count);
+        }
+        for (int id = 0; id < count; id += 2) {
+            mRegistry.remove(id * 7919L);
+        }
+
+        assertEquals(count / 2, mRegistry.size());
+        for (int id = 0; id < count; id++) {
+            if (id % 2 == 0) {
+                assertFalse(mRegistry.contains(id * 7919L));
+            } else {
+                assertTrue(mRegistry.contains(id * 7919L));
+                assertEquals(id, mRegistry.getProgress(id * 7919L));
+            }
+        }
+    }
+
+    @Test
+    public void buttonTransitionsAreWrittenBack() {
+        mRegistry.setState(1, DownloadButtonProgress.STATE_DETERMINATE);
+        mRegistry.setProgress(1, 40, 100);
+        bind(1);
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                // what a cancel click listener does
+                mButton.setIdle();
+            }
+        });
+        assertEquals(DownloadButtonProgress.STATE_IDLE, mRegistry.getState(1));
+        assertEquals(0, mRegistry.getProgress(1));
+
+        // a worker not aware of the cancel yet
+        mRegistry.setProgress(1, 60, 100);
+        assertEquals(0, mRegistry.getProgress(1));
+        bind(2);
+        bind(1);
+        assertEquals(DownloadButtonProgress.STATE_IDLE, mButton.getCurrState());
+    }
+
+    @Test
+    public void detachedButtonFollowsPublishedValues() {
+        final DownloadButtonProgress[] detached = new DownloadButtonProgress[1];
+        final int[] states = new int[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                // like a row taken off the screen by a RecyclerView
+                detached[0] = new DownloadButtonProgress(mButton.getContext());
+                detached[0].addOnStateChangedListeners(new DownloadButtonProgress.OnStateChangedListener() {
+                    @Override
+                    public void onStateChanged(int newState) {
+                        states[0]++;
+                    }
+                });
+            }
+        });
+
+        detached[0].publishState(DownloadButtonProgress.STATE_DETERMINATE);
+        detached[0].publishProgress(30, 100);
+        InstrumentationRegistry.getInstrumentation().waitForIdleSync();
+
+        assertEquals(1, states[0]);
+        assertEquals(30, detached[0].getProgressDrawable().getProgress());
+    }
+
+    private void awaitProgress(int progress) {
+        long deadline = SystemClock.uptimeMillis() + TIMEOUT_MILLIS;
+        while (mButton.getCurrentProgress() != progress && SystemClock.uptimeMillis() < deadline) {
+            SystemClock.sleep(10);
+        }
+        assertEquals(progress, mButton.getCurrentProgress());
+    }
+
+    private void bind(final long id) {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mRegistry.bind(id, mButton);
+            }
+        });
+    }
+}
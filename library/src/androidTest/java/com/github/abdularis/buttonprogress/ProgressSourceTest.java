@@ -0,0 +1,152 @@
+package com.github.abdularis.buttonprogress;
+
+import android.os.SystemClock;
+import android.widget.FrameLayout;
+
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a subscribed source is only sent what was requested, and that completion, errors,
+ * invalid updates and cancel clicks reach the button and the source, even a source that sends
+ * nothing.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProgressSourceTest {
+
+    private static final long TIMEOUT_MILLIS = 1000;
+    // a few frames worth of requests
+    private static final int UPDATE_COUNT = 8 * SourceSubscriber.REQUEST_BATCH;
+
+    private ActivityScenario<TestActivity> mScenario;
+    private DownloadButtonProgress mButton;
+    private final TestSource mSource = new TestSource();
+
+    @Before
+    public void setUp() {
+        mScenario = ActivityScenario.launch(TestActivity.class);
+        mScenario.onActivity(new ActivityScenario.ActivityAction<TestActivity>() {
+            @Override
+            public void perform(TestActivity activity) {
+                mButton = new DownloadButtonProgress(activity);
+                activity.getContainer().addView(mButton, new FrameLayout.LayoutParams(100, 100));
+                mButton.subscribe(mSource);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mScenario.close();
+    }
+
+    @Test
+    public void fastSourceIsThrottledToDemand() {
+        assertEquals(DownloadButtonProgress.STATE_INDETERMINATE, mButton.getCurrState());
+
+        long deadline = SystemClock.uptimeMillis() + TIMEOUT_MILLIS;
+        int sent = 0;
+        while (sent < UPDATE_COUNT && SystemClock.uptimeMillis() < deadline) {
+            // a fast producer only sends what it was asked for
+            if (mSource.mRequested.get() > 0) {
+                mSource.mRequested.decrementAndGet();
+                mSource.mSubscriber.onProgress(++sent, UPDATE_COUNT);
+            }
+        }
+        assertEquals(UPDATE_COUNT, sent);
+        assertTrue(mSource.mMaxOutstanding.get() <= SourceSubscriber.REQUEST_BATCH);
+        mSource.mSubscriber.onComplete();
+
+        awaitState(DownloadButtonProgress.STATE_FINISHED);
+    }
+
+    @Test
+    public void errorResetsToIdle() {
+        mSource.mSubscriber.onProgress(10, 100);
+        mSource.mSubscriber.onError(new RuntimeException());
+
+        awaitState(DownloadButtonProgress.STATE_IDLE);
+    }
+
+    @Test
+    public void invalidMaxCancelsAndResetsToIdle() {
+        mSource.mSubscriber.onProgress(10, 100);
+        mSource.mSubscriber.onProgress(10, 0);
+        assertTrue(mSource.mCancelled.get());
+
+        awaitState(DownloadButtonProgress.STATE_IDLE);
+    }
+
+    @Test
+    public void cancelClickCancelsStalledSource() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                // what a cancel click listener does, while the source sends nothing
+                mButton.setIdle();
+                assertTrue(mSource.mCancelled.get());
+            }
+        });
+        assertEquals(DownloadButtonProgress.STATE_IDLE, mButton.getCurrState());
+    }
+
+    @Test
+    public void idleBeforeSubscribingDoesNotCancel() {
+        final TestSource source = new TestSource();
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mButton.setIdle();
+                mButton.subscribe(source);
+            }
+        });
+        assertTrue(mSource.mCancelled.get());
+        assertFalse(source.mCancelled.get());
+        assertEquals(DownloadButtonProgress.STATE_INDETERMINATE, mButton.getCurrState());
+    }
+
+    private void awaitState(int state) {
+        long deadline = SystemClock.uptimeMillis() + TIMEOUT_MILLIS;
+        while (mButton.getCurrState() != state && SystemClock.uptimeMillis() < deadline) {
+            SystemClock.sleep(10);
+        }
+        assertEquals(state, mButton.getCurrState());
+    }
+
+    private static class TestSource implements ProgressSource {
+        final AtomicLong mRequested = new AtomicLong();
+        final AtomicLong mMaxOutstanding = new AtomicLong();
+        final AtomicBoolean mCancelled = new AtomicBoolean();
+        volatile Subscriber mSubscriber;
+
+        @Override
+        public void subscribe(Subscriber subscriber) {
+            mSubscriber = subscriber;
+            subscriber.onSubscribe(new Subscription() {
+                @Override
+                public void request(long n) {
+                    long outstanding = mRequested.addAndGet(n);
+                    if (outstanding > mMaxOutstanding.get()) mMaxOutstanding.set(outstanding);
+                }
+
+                @Override
+                public void cancel() {
+                    mCancelled.set(true);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.github.abdularis.buttonprogress;
+
+import android.content.Context;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the size of the saved instance state, that it restores every saved field and that
+ * buttons restored with an unchanged style keep sharing it.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SavedStateTest {
+
+    // fields only, the string keys of the former Bundle alone took more than this
+    private static final int MAX_FULL_STATE_SIZE = 256;
+
+    @Test
+    public void roundTripsStyleAndProgress() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                DownloadButtonProgress button = newButton();
+                button.setCancelable(false);
+                button.setIdleIconWidth(11);
+                button.setFinishIconHeight(12);
+                button.setDeterminateBgColor(0xFF112233);
+                button.setProgressIndeterminateColor(0xFF445566);
+                button.setProgressMargin(7);
+                button.setProgressIndeterminateSweepAngle(45);
+                button.setMaxProgress(500);
+                button.setDeterminate();
+                button.setCurrentProgress(123);
+
+                DownloadButtonProgress restored = newButton();
+                restored.onRestoreInstanceState(parcel(button.onSaveInstanceState()));
+
+                assertEquals(DownloadButtonProgress.STATE_DETERMINATE, restored.getCurrState());
+                assertEquals(123, restored.getCurrentProgress());
+                assertEquals(500, restored.getMaxProgress());
+                assertFalse(restored.isCancelable());
+                assertEquals(11, restored.getIdleIconWidth());
+                assertEquals(12, restored.getFinishIconHeight());
+                assertEquals(0xFF112233, restored.getDeterminateBgColor());
+                assertEquals(0xFF445566, restored.getProgressIndeterminateColor());
+                assertEquals(7, restored.getProgressMargin());
+                assertEquals(45, restored.getProgressIndeterminateSweepAngle());
+            }
+        });
+    }
+
+    @Test
+    public void dynamicStateOnlyKeepsStyleFromLayout() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                DownloadButtonProgress button = newButton();
+                button.setSaveDynamicStateOnly(true);
+                button.setProgressMargin(9);
+                button.setFinish();
+
+                DownloadButtonProgress restored = newButton();
+                int defaultMargin = restored.getProgressMargin();
+                restored.onRestoreInstanceState(parcel(button.onSaveInstanceState()));
+
+                assertEquals(DownloadButtonProgress.STATE_FINISHED, restored.getCurrState());
+                assertEquals(defaultMargin, restored.getProgressMargin());
+            }
+        });
+    }
+
+    @Test
+    public void unchangedStyleStaysShared() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                DownloadButtonProgress button = newButton();
+                button.setDeterminate();
+
+                DownloadButtonProgress restored = newButton();
+                ButtonProgressStyle shared = restored.getStyle();
+                restored.onRestoreInstanceState(parcel(button.onSaveInstanceState()));
+
+                assertSame(shared, restored.getStyle());
+                assertSame(button.getStyle(), restored.getStyle());
+                // the icons of the shared style are never handed out
+                assertNotSame(shared.getIdleIcon(), restored.getIdleIcon());
+            }
+        });
+    }
+
+    @Test
+    public void savedStateIsCompact() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                DownloadButtonProgress button = newButton();
+                int fullSize = sizeOf(button.onSaveInstanceState());
+
+                button.setSaveDynamicStateOnly(true);
+                int dynamicSize = sizeOf(button.onSaveInstanceState());
+
+                assertTrue("full state is " + fullSize + " bytes", fullSize <= MAX_FULL_STATE_SIZE);
+                assertTrue(dynamicSize < fullSize);
+            }
+        });
+    }
+
+    private static DownloadButtonProgress newButton() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        return new DownloadButtonProgress(context);
+    }
+
+    private static Parcelable parcel(Parcelable state) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            state.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            return DownloadButtonProgress.SavedState.CREATOR.createFromParcel(parcel);
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private static int sizeOf(Parcelable state) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            state.writeToParcel(parcel, 0);
+            return parcel.dataSize();
+        } finally {
+            parcel.recycle();
+        }
+    }
+}
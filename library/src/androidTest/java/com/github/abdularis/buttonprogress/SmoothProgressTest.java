@@ -0,0 +1,99 @@
+package com.github.abdularis.buttonprogress;
+
+import android.graphics.drawable.Drawable;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the smooth progress animation redraws at most once per frame and stops scheduling
+ * frames once the arc reaches the progress.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SmoothProgressTest {
+
+    private static final long FRAME_NANOS = 16666667;
+    private static final int MAX_FRAMES = 120;
+
+    private int mInvalidations;
+
+    @Test
+    public void chasesProgressOncePerFrameThenStops() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                DownloadProgressDrawable drawable = newVisibleDrawable();
+                drawable.setSmoothProgressEnabled(true);
+                drawable.setState(DownloadProgressDrawable.STATE_DETERMINATE);
+                mInvalidations = 0;
+
+                // many updates between two frames
+                for (int progress = 1; progress <= 60; progress++) {
+                    drawable.setProgress(progress);
+                }
+                assertTrue(drawable.isSmoothProgressRunning());
+                assertEquals(0, mInvalidations);
+
+                FrameClock clock = FrameClock.getInstance();
+                long frameTime = System.nanoTime();
+                int frames = 0;
+                while (drawable.isSmoothProgressRunning() && frames < MAX_FRAMES) {
+                    frameTime += FRAME_NANOS;
+                    clock.dispatchFrame(frameTime);
+                    frames++;
+                }
+
+                assertFalse(drawable.isSmoothProgressRunning());
+                assertTrue(mInvalidations <= frames);
+                drawable.setCallback(null);
+            }
+        });
+    }
+
+    @Test
+    public void jumpToCurrentStateSkipsAnimation() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                DownloadProgressDrawable drawable = newVisibleDrawable();
+                drawable.setSmoothProgressEnabled(true);
+                drawable.setState(DownloadProgressDrawable.STATE_DETERMINATE);
+                drawable.setProgress(80);
+                assertTrue(drawable.isSmoothProgressRunning());
+
+                drawable.jumpToCurrentState();
+                assertFalse(drawable.isSmoothProgressRunning());
+                drawable.setCallback(null);
+            }
+        });
+    }
+
+    private DownloadProgressDrawable newVisibleDrawable() {
+        DownloadProgressDrawable drawable = new DownloadProgressDrawable(
+                InstrumentationRegistry.getInstrumentation().getTargetContext().getResources());
+        drawable.setBounds(0, 0, 200, 200);
+        drawable.setCallback(new Drawable.Callback() {
+            @Override
+            public void invalidateDrawable(Drawable who) {
+                mInvalidations++;
+            }
+
+            @Override
+            public void scheduleDrawable(Drawable who, Runnable what, long when) {
+            }
+
+            @Override
+            public void unscheduleDrawable(Drawable who, Runnable what) {
+            }
+        });
+        drawable.setVisible(true, false);
+        return drawable;
+    }
+}
@@ -0,0 +1,67 @@
+package com.github.abdularis.buttonprogress;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Bundle;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Compares the per frame draw cost of a determinate button in fast stroke mode against the legacy
+ * {@link android.graphics.CornerPathEffect} stroke. Results are reported as instrumentation status
+ * (and logged), they are not asserted since they depend on the device.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StrokeModeBenchmark {
+
+    private static final String TAG = "StrokeModeBenchmark";
+    private static final int SIZE = 144;
+    private static final int WARM_UP_FRAMES = 200;
+    private static final int MEASURED_FRAMES = 2000;
+
+    @Test
+    public void compareStrokeModes() {
+        final Bundle results = new Bundle();
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                long fast = measureFrameNanos(true);
+                long legacy = measureFrameNanos(false);
+
+                Log.i(TAG, "fast stroke: " + fast + " ns/frame, legacy stroke: " + legacy + " ns/frame");
+                results.putLong("fast_stroke_ns_per_frame", fast);
+                results.putLong("legacy_stroke_ns_per_frame", legacy);
+            }
+        });
+
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, results);
+    }
+
+    private static long measureFrameNanos(boolean fastStroke) {
+        DownloadButtonProgress button = new DownloadButtonProgress(
+                InstrumentationRegistry.getInstrumentation().getTargetContext());
+        button.layout(0, 0, SIZE, SIZE);
+        button.setFastStrokeEnabled(fastStroke);
+        button.setDeterminate();
+        button.setMaxProgress(MEASURED_FRAMES);
+
+        Canvas canvas = new Canvas(Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888));
+        for (int i = 0; i < WARM_UP_FRAMES; i++) {
+            button.setCurrentProgress(i);
+            button.onDraw(canvas);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_FRAMES; i++) {
+            button.setCurrentProgress(i);
+            button.onDraw(canvas);
+        }
+        return (System.nanoTime() - start) / MEASURED_FRAMES;
+    }
+}
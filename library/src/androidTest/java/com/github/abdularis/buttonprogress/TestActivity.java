@@ -0,0 +1,24 @@
+package com.github.abdularis.buttonprogress;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.widget.FrameLayout;
+
+/**
+ * Empty host activity, instrumented tests attach the views under test into {@link #getContainer()}
+ */
+public class TestActivity extends Activity {
+
+    private FrameLayout mContainer;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        mContainer = new FrameLayout(this);
+        setContentView(mContainer);
+    }
+
+    public FrameLayout getContainer() {
+        return mContainer;
+    }
+}
@@ -0,0 +1,284 @@
+package com.github.abdularis.buttonprogress;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * {@link ProgressSource} of many concurrent transfers shown as one, e.g. a bundle of files
+ * downloaded in parallel behind a single button:
+ * <pre>
+ * AggregateProgress bundle = new AggregateProgress();
+ * button.subscribe(bundle);
+ * // for each file
+ * AggregateProgress.Transfer file = bundle.addTransfer(fileSize);
+ * // once every file was added
+ * bundle.seal();
+ * // worker thread
+ * file.addBytes(read);
+ * file.complete();
+ * </pre>
+ * Workers update 64 bit byte counters striped across transfers, so they do not contend on a
+ * shared counter. The sums are only computed when the subscriber has demand, which a
+ * {@link DownloadButtonProgress} renews once per frame. Transfers can be added until
+ * {@link #seal()} and removed at any time, the source completes, finishing the button, once it is
+ * sealed and every transfer that was not removed is complete. Transfers completing before the
+ * last one is added so never finish the button early.
+ *
+ * The progress is the sum of the transferred bytes over the sum of the total bytes, nothing is
+ * sent while no total is known. At most one subscriber at a time, a subscriber is rejected with
+ * {@link IllegalStateException} until the previous one cancelled.
+ */
+public final class AggregateProgress implements ProgressSource {
+
+    // power of two, more stripes than this rarely helps with the CPUs devices have
+    private static final int STRIPES = 8;
+    // longs between two stripes, so each one sits on its own 64 bytes cache line
+    private static final int STRIDE = 8;
+    private static final int DONE = 0;
+    private static final int TOTAL = 1;
+
+    private static final int ACTIVE = 0;
+    private static final int COMPLETED = 1;
+    private static final int REMOVED = 2;
+
+    private static final long SEALED = 1L << 62;
+    private static final long COUNT_MASK = 0x3FFFFFFFL;
+
+    private final AtomicLongArray mCells = new AtomicLongArray(STRIPES * STRIDE);
+    private final AtomicInteger mNextStripe = new AtomicInteger();
+    // SEALED bit, then transfers not removed from bit 32, completed ones among them in the low 32
+    // bits
+    private final AtomicLong mTransfers = new AtomicLong();
+    private volatile boolean mFinished;
+
+    private final AtomicInteger mDrainCount = new AtomicInteger();
+    private final AtomicReference<AggregateSubscription> mSubscription = new AtomicReference<>();
+    // set by workers when the sums changed, cleared before they are computed and sent
+    private volatile boolean mChanged;
+
+    /**
+     * @param totalBytes size of the transfer, 0 when not known yet, see
+     *                   {@link Transfer#setTotalBytes(long)}
+     */
+    public Transfer addTransfer(long totalBytes) {
+        while (true) {
+            long transfers = mTransfers.get();
+            if ((transfers & SEALED) != 0) throw new IllegalStateException("Sealed, no transfer can be added");
+            if (mTransfers.compareAndSet(transfers, transfers + (1L << 32))) break;
+        }
+
+        Transfer transfer = new Transfer(mNextStripe.getAndIncrement() & (STRIPES - 1));
+        if (totalBytes != 0) transfer.setTotalBytes(totalBytes);
+        return transfer;
+    }
+
+    /**
+     * No transfer is added anymore, the source completes as soon as every remaining transfer is
+     * complete, right away if they already are. Sealing again has no effect.
+     */
+    public void seal() {
+        long transfers;
+        do {
+            transfers = mTransfers.get();
+            if ((transfers & SEALED) != 0) return;
+        } while (!mTransfers.compareAndSet(transfers, transfers | SEALED));
+        checkFinished(transfers | SEALED);
+    }
+
+    public boolean isSealed() {
+        return (mTransfers.get() & SEALED) != 0;
+    }
+
+    public long getBytesDone() {
+        return sum(DONE);
+    }
+
+    public long getTotalBytes() {
+        return sum(TOTAL);
+    }
+
+    /**
+     * @return number of transfers added and not removed
+     */
+    public int getTransferCount() {
+        return (int) ((mTransfers.get() >>> 32) & COUNT_MASK);
+    }
+
+    /**
+     * @return whether every transfer completed, this source then sends nothing anymore
+     */
+    public boolean isFinished() {
+        return mFinished;
+    }
+
+    @Override
+    public void subscribe(Subscriber subscriber) {
+        AggregateSubscription subscription = new AggregateSubscription(subscriber);
+        AggregateSubscription previous = mSubscription.get();
+        if ((previous != null && !previous.mCancelled) || !mSubscription.compareAndSet(previous, subscription)) {
+            subscription.mCancelled = true;
+            subscriber.onSubscribe(subscription);
+            subscriber.onError(new IllegalStateException("Already subscribed"));
+            return;
+        }
+        subscriber.onSubscribe(subscription);
+        mChanged = true;
+        drain();
+    }
+
+    private long sum(int counter) {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += mCells.get(i * STRIDE + counter);
+        }
+        return sum;
+    }
+
+    private void add(int stripe, int counter, long delta) {
+        if (delta == 0) return;
+        mCells.addAndGet(stripe * STRIDE + counter, delta);
+        if (!mChanged) {
+            // only the first change since the last send writes shared memory
+            mChanged = true;
+            drain();
+        }
+    }
+
+    private void onTransfersChanged(long delta) {
+        checkFinished(mTransfers.addAndGet(delta));
+    }
+
+    private void checkFinished(long transfers) {
+        int count = (int) ((transfers >>> 32) & COUNT_MASK);
+        int completed = (int) transfers;
+        if ((transfers & SEALED) != 0 && count == completed && !mFinished) {
+            mFinished = true;
+            drain();
+        }
+    }
+
+    /**
+     * Send the sums (or the completion) to the subscriber from whichever thread gets here first,
+     * the others only make it loop again, so the subscriber is never called concurrently
+     */
+    private void drain() {
+        if (mDrainCount.getAndIncrement() != 0) return;
+
+        int missed = 1;
+        do {
+            AggregateSubscription subscription = mSubscription.get();
+            if (subscription != null && !subscription.mCancelled) {
+                if (mFinished) {
+                    subscription.mCancelled = true;
+                    subscription.mSubscriber.onComplete();
+                } else if (mChanged && subscription.mRequested.get() > 0) {
+                    mChanged = false;
+                    long total = sum(TOTAL);
+                    if (total > 0) {
+                        subscription.mRequested.decrementAndGet();
+                        subscription.mSubscriber.onProgress(sum(DONE), total);
+                    }
+                }
+            }
+            missed = mDrainCount.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private final class AggregateSubscription implements Subscription {
+        final Subscriber mSubscriber;
+        final AtomicLong mRequested = new AtomicLong();
+        volatile boolean mCancelled;
+
+        AggregateSubscription(Subscriber subscriber) {
+            mSubscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) throw new IllegalArgumentException("n must be positive: " + n);
+            mRequested.addAndGet(n);
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            mCancelled = true;
+        }
+    }
+
+    /**
+     * One of the aggregated transfers, usually updated by a single worker thread. Every method can
+     * be called from any thread, updates after {@link #complete()} or {@link #remove()} are
+     * ignored.
+     */
+    public final class Transfer {
+        private final int mStripe;
+        // guarded by this, which only the worker of this transfer usually takes
+        private int mState = ACTIVE;
+        private long mDone;
+        private long mTotal;
+
+        Transfer(int stripe) {
+            mStripe = stripe;
+        }
+
+        public void addBytes(long bytes) {
+            synchronized (this) {
+                if (mState != ACTIVE) return;
+                mDone += bytes;
+            }
+            add(mStripe, DONE, bytes);
+        }
+
+        public void setTotalBytes(long totalBytes) {
+            long delta;
+            synchronized (this) {
+                if (mState != ACTIVE) return;
+                delta = totalBytes - mTotal;
+                mTotal = totalBytes;
+            }
+            add(mStripe, TOTAL, delta);
+        }
+
+        /**
+         * Count this transfer as fully done, its total becomes the bytes done when it was not
+         * known or smaller
+         */
+        public void complete() {
+            long doneDelta;
+            long totalDelta;
+            synchronized (this) {
+                if (mState != ACTIVE) return;
+                mState = COMPLETED;
+                doneDelta = Math.max(mTotal - mDone, 0);
+                totalDelta = Math.max(mDone - mTotal, 0);
+                mDone += doneDelta;
+                mTotal += totalDelta;
+            }
+            add(mStripe, DONE, doneDelta);
+            add(mStripe, TOTAL, totalDelta);
+            onTransfersChanged(1);
+        }
+
+        /**
+         * Remove this transfer and its bytes from the aggregate, e.g. when it was cancelled
+         */
+        public void remove() {
+            int state;
+            long done;
+            long total;
+            synchronized (this) {
+                state = mState;
+                if (state == REMOVED) return;
+                mState = REMOVED;
+                done = mDone;
+                total = mTotal;
+            }
+            add(mStripe, DONE, -done);
+            add(mStripe, TOTAL, -total);
+            onTransfersChanged(state == COMPLETED ? -(1L << 32) - 1 : -(1L << 32));
+        }
+    }
+}
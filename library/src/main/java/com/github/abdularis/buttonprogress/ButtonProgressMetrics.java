@@ -0,0 +1,187 @@
+package com.github.abdularis.buttonprogress;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Opt-in, process wide counters of the work done by every {@link DownloadProgressDrawable} (and so
+ * every {@link DownloadButtonProgress}), meant to be exported to production monitoring:
+ * draws and time spent drawing per state, redraws requested versus skipped, progress updates
+ * received versus rendered, and the state transitions applied by buttons.
+ *
+ * Disabled by default, then recording costs a single boolean check. When enabled each event is
+ * one atomic increment on a primitive counter, nothing is allocated until {@link #snapshot()}.
+ */
+public final class ButtonProgressMetrics {
+
+    private static final int STATE_COUNT = 4;
+
+    private static final int DRAW_COUNT = 0;
+    private static final int DRAW_NANOS = DRAW_COUNT + STATE_COUNT;
+    private static final int INVALIDATE = DRAW_NANOS + STATE_COUNT;
+    private static final int SKIPPED_INVALIDATE = INVALIDATE + 1;
+    private static final int PROGRESS_RECEIVED = SKIPPED_INVALIDATE + 1;
+    private static final int PROGRESS_RENDERED = PROGRESS_RECEIVED + 1;
+    private static final int TRANSITIONS = PROGRESS_RENDERED + 1;
+    private static final int COUNTER_COUNT = TRANSITIONS + STATE_COUNT * STATE_COUNT;
+
+    private static final AtomicLongArray sCounters = new AtomicLongArray(COUNTER_COUNT);
+    private static volatile boolean sEnabled;
+
+    private ButtonProgressMetrics() {
+    }
+
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * @return copy of the counters recorded since the start of the process (or the last
+     * {@link #reset()})
+     */
+    public static Snapshot snapshot() {
+        long[] values = new long[COUNTER_COUNT];
+        for (int i = 0; i < COUNTER_COUNT; i++) {
+            values[i] = sCounters.get(i);
+        }
+        return new Snapshot(values);
+    }
+
+    public static void reset() {
+        for (int i = 0; i < COUNTER_COUNT; i++) {
+            sCounters.set(i, 0);
+        }
+    }
+
+    /**
+     * Callers measure the draw only when {@link #isEnabled()}, so this does not check it again
+     */
+    static void recordDraw(int state, long nanos) {
+        sCounters.incrementAndGet(DRAW_COUNT + state - 1);
+        sCounters.addAndGet(DRAW_NANOS + state - 1, nanos);
+    }
+
+    static void recordInvalidate() {
+        if (sEnabled) sCounters.incrementAndGet(INVALIDATE);
+    }
+
+    static void recordSkippedInvalidate() {
+        if (sEnabled) sCounters.incrementAndGet(SKIPPED_INVALIDATE);
+    }
+
+    static void recordProgressReceived() {
+        if (sEnabled) sCounters.incrementAndGet(PROGRESS_RECEIVED);
+    }
+
+    static void recordProgressRendered() {
+        if (sEnabled) sCounters.incrementAndGet(PROGRESS_RENDERED);
+    }
+
+    static void recordTransition(int fromState, int toState) {
+        if (sEnabled) sCounters.incrementAndGet(transitionIndex(fromState, toState));
+    }
+
+    private static int transitionIndex(int fromState, int toState) {
+        return TRANSITIONS + (fromState - 1) * STATE_COUNT + toState - 1;
+    }
+
+    private static String stateName(int state) {
+        switch (state) {
+            case DownloadProgressDrawable.STATE_IDLE: return "idle";
+            case DownloadProgressDrawable.STATE_INDETERMINATE: return "indeterminate";
+            case DownloadProgressDrawable.STATE_DETERMINATE: return "determinate";
+            default: return "finished";
+        }
+    }
+
+    /**
+     * Immutable copy of the counters. Methods taking a state expect one of the STATE_ constants of
+     * {@link DownloadProgressDrawable}.
+     */
+    public static final class Snapshot {
+
+        private final long[] mValues;
+
+        private Snapshot(long[] values) {
+            mValues = values;
+        }
+
+        public long getDrawCount(int state) {
+            return mValues[DRAW_COUNT + state - 1];
+        }
+
+        public long getDrawNanos(int state) {
+            return mValues[DRAW_NANOS + state - 1];
+        }
+
+        public long getTotalDrawNanos() {
+            long total = 0;
+            for (int i = 0; i < STATE_COUNT; i++) total += mValues[DRAW_NANOS + i];
+            return total;
+        }
+
+        /**
+         * @return number of redraws requested for progress changes and spinner frames
+         */
+        public long getInvalidateCount() {
+            return mValues[INVALIDATE];
+        }
+
+        /**
+         * @return number of progress changes not redrawn because the arc would not visibly change
+         */
+        public long getSkippedInvalidateCount() {
+            return mValues[SKIPPED_INVALIDATE];
+        }
+
+        public long getProgressReceivedCount() {
+            return mValues[PROGRESS_RECEIVED];
+        }
+
+        /**
+         * @return number of determinate draws showing a different sweep than the previous draw
+         */
+        public long getProgressRenderedCount() {
+            return mValues[PROGRESS_RENDERED];
+        }
+
+        /**
+         * @return number of transitions applied by the state machine of a button, states set
+         * directly on a drawable (e.g. when restoring or binding it) are not counted
+         */
+        public long getTransitionCount(int fromState, int toState) {
+            return mValues[transitionIndex(fromState, toState)];
+        }
+
+        /**
+         * @return every counter by name, e.g. to be sent to a monitoring backend
+         */
+        public Map<String, Long> toMap() {
+            Map<String, Long> map = new LinkedHashMap<>();
+            for (int state = 1; state <= STATE_COUNT; state++) {
+                map.put("draw_count_" + stateName(state), getDrawCount(state));
+                map.put("draw_nanos_" + stateName(state), getDrawNanos(state));
+            }
+            map.put("invalidate_count", getInvalidateCount());
+            map.put("skipped_invalidate_count", getSkippedInvalidateCount());
+            map.put("progress_received_count", getProgressReceivedCount());
+            map.put("progress_rendered_count", getProgressRenderedCount());
+            for (int from = 1; from <= STATE_COUNT; from++) {
+                for (int to = 1; to <= STATE_COUNT; to++) {
+                    map.put("transition_" + stateName(from) + "_" + stateName(to), getTransitionCount(from, to));
+                }
+            }
+            return map;
+        }
+
+        @Override
+        public String toString() {
+            return "ButtonProgressMetrics" + toMap();
+        }
+    }
+}
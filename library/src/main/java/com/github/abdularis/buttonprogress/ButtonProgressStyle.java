@@ -0,0 +1,530 @@
+package com.github.abdularis.buttonprogress;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.content.res.TypedArray;
+import android.graphics.Color;
+import android.graphics.CornerPathEffect;
+import android.graphics.Paint;
+import android.graphics.drawable.Drawable;
+
+/**
+ * Immutable look of a {@link DownloadProgressDrawable} (and so of a {@link DownloadButtonProgress}):
+ * icons and their sizes, background colors or drawables, progress colors, width, margin and
+ * indeterminate sweep angle, together with the paints derived from them.
+ *
+ * Build one with {@link Builder}, or from a style resource with {@link #fromStyle(Context, int)},
+ * and give the same instance to every button that looks the same, each button then only keeps
+ * its state and progress. A style never changes, to restyle buttons build a new style (see
+ * {@link #buildUpon()}) and set it on them.
+ *
+ * Icon and background drawables are shared by every button using the style, they are drawn with
+ * new bounds each time and must not be animated nor mutated.
+ */
+public final class ButtonProgressStyle {
+
+    static final int DEF_BG_COLOR = 0xB4000000;
+    static final boolean DEF_CANCELABLE = true;
+    static final int DEF_DETERMINATE_COLOR = Color.GREEN;
+    static final int DEF_INDETERMINATE_COLOR = Color.WHITE;
+    static final int DEF_PROGRESS_WIDTH = 8;
+    static final int DEF_PROGRESS_MARGIN = 5;
+    static final int DEF_PROGRESS_INDETERMINATE_WIDTH = 90;
+    static final boolean DEF_FAST_STROKE_ENABLED = true;
+
+    private static final float LEGACY_STROKE_CORNER_RADIUS = 50f;
+
+    private final Drawable mIdleIcon;
+    private final Drawable mCancelIcon;
+    private final Drawable mFinishIcon;
+
+    private final boolean mCancelable;
+
+    private final int mIdleIconWidth;
+    private final int mIdleIconHeight;
+    private final int mCancelIconWidth;
+    private final int mCancelIconHeight;
+    private final int mFinishIconWidth;
+    private final int mFinishIconHeight;
+
+    private final int mIdleBgColor;
+    private final int mFinishBgColor;
+    private final int mIndeterminateBgColor;
+    private final int mDeterminateBgColor;
+
+    private final Drawable mIdleBgDrawable;
+    private final Drawable mFinishBgDrawable;
+    private final Drawable mIndeterminateBgDrawable;
+    private final Drawable mDeterminateBgDrawable;
+
+    private final int mProgressIndeterminateSweepAngle;
+    private final int mProgressDeterminateColor;
+    private final int mProgressIndeterminateColor;
+    private final int mProgressMargin;
+    private final float mProgressWidth;
+    private final boolean mFastStrokeEnabled;
+
+    // never modified once built, shared by every drawable using this style
+    private final Paint mIdleBgPaint;
+    private final Paint mFinishBgPaint;
+    private final Paint mIndeterminateBgPaint;
+    private final Paint mDeterminateBgPaint;
+    private final Paint mProgressDeterminatePaint;
+    private final Paint mProgressIndeterminatePaint;
+
+    private ButtonProgressStyle(Builder builder) {
+        mIdleIcon = builder.mIdleIcon;
+        mCancelIcon = builder.mCancelIcon;
+        mFinishIcon = builder.mFinishIcon;
+        mCancelable = builder.mCancelable;
+        mIdleIconWidth = builder.mIdleIconWidth;
+        mIdleIconHeight = builder.mIdleIconHeight;
+        mCancelIconWidth = builder.mCancelIconWidth;
+        mCancelIconHeight = builder.mCancelIconHeight;
+        mFinishIconWidth = builder.mFinishIconWidth;
+        mFinishIconHeight = builder.mFinishIconHeight;
+        mIdleBgColor = builder.mIdleBgColor;
+        mFinishBgColor = builder.mFinishBgColor;
+        mIndeterminateBgColor = builder.mIndeterminateBgColor;
+        mDeterminateBgColor = builder.mDeterminateBgColor;
+        mIdleBgDrawable = builder.mIdleBgDrawable;
+        mFinishBgDrawable = builder.mFinishBgDrawable;
+        mIndeterminateBgDrawable = builder.mIndeterminateBgDrawable;
+        mDeterminateBgDrawable = builder.mDeterminateBgDrawable;
+        mProgressIndeterminateSweepAngle = builder.mProgressIndeterminateSweepAngle;
+        mProgressDeterminateColor = builder.mProgressDeterminateColor;
+        mProgressIndeterminateColor = builder.mProgressIndeterminateColor;
+        mProgressMargin = builder.mProgressMargin;
+        mProgressWidth = builder.mProgressWidth;
+        mFastStrokeEnabled = builder.mFastStrokeEnabled;
+
+        mIdleBgPaint = newBgPaint(mIdleBgColor);
+        mFinishBgPaint = newBgPaint(mFinishBgColor);
+        mIndeterminateBgPaint = newBgPaint(mIndeterminateBgColor);
+        mDeterminateBgPaint = newBgPaint(mDeterminateBgColor);
+        mProgressDeterminatePaint = newProgressPaint(mProgressDeterminateColor);
+        mProgressIndeterminatePaint = newProgressPaint(mProgressIndeterminateColor);
+    }
+
+    /**
+     * @return style made of the DownloadButtonProgress attributes of the given style resource,
+     * attributes missing from it take their default value
+     */
+    public static ButtonProgressStyle fromStyle(Context context, int styleRes) {
+        TypedArray a = context.obtainStyledAttributes(styleRes, R.styleable.DownloadButtonProgress);
+        try {
+            return fromAttributes(context.getResources(), a);
+        } finally {
+            a.recycle();
+        }
+    }
+
+    static ButtonProgressStyle fromAttributes(Resources res, TypedArray a) {
+        DrawableCache drawableCache = DrawableCache.getInstance();
+        Builder builder = new Builder(res);
+
+        int idleResId = a.getResourceId(R.styleable.DownloadButtonProgress_idleBackgroundDrawable, -1);
+        int finishResId = a.getResourceId(R.styleable.DownloadButtonProgress_finishBackgroundDrawable, -1);
+        int indeterminateResId = a.getResourceId(R.styleable.DownloadButtonProgress_indeterminateBackgroundDrawable, -1);
+        int determinateResId = a.getResourceId(R.styleable.DownloadButtonProgress_determinateBackgroundDrawable, -1);
+
+        if (idleResId != -1) builder.setIdleBgDrawable(drawableCache.getDrawable(res, idleResId));
+        if (finishResId != -1) builder.setFinishBgDrawable(drawableCache.getDrawable(res, finishResId));
+        if (indeterminateResId != -1) builder.setIndeterminateBgDrawable(drawableCache.getDrawable(res, indeterminateResId));
+        if (determinateResId != -1) builder.setDeterminateBgDrawable(drawableCache.getDrawable(res, determinateResId));
+
+        builder.setIdleBgColor(a.getColor(R.styleable.DownloadButtonProgress_idleBackgroundColor, DEF_BG_COLOR))
+                .setFinishBgColor(a.getColor(R.styleable.DownloadButtonProgress_finishBackgroundColor, DEF_BG_COLOR))
+                .setIndeterminateBgColor(a.getColor(R.styleable.DownloadButtonProgress_indeterminateBackgroundColor, DEF_BG_COLOR))
+                .setDeterminateBgColor(a.getColor(R.styleable.DownloadButtonProgress_determinateBackgroundColor, DEF_BG_COLOR))
+                .setCancelable(a.getBoolean(R.styleable.DownloadButtonProgress_cancelable, DEF_CANCELABLE))
+                .setProgressIndeterminateSweepAngle(a.getInteger(R.styleable.DownloadButtonProgress_progressIndeterminateSweepAngle, DEF_PROGRESS_INDETERMINATE_WIDTH))
+                .setProgressDeterminateColor(a.getColor(R.styleable.DownloadButtonProgress_progressDeterminateColor, DEF_DETERMINATE_COLOR))
+                .setProgressIndeterminateColor(a.getColor(R.styleable.DownloadButtonProgress_progressIndeterminateColor, DEF_INDETERMINATE_COLOR))
+                .setProgressWidth(a.getDimensionPixelSize(R.styleable.DownloadButtonProgress_progressWidth, DEF_PROGRESS_WIDTH))
+                .setProgressMargin(a.getDimensionPixelSize(R.styleable.DownloadButtonProgress_progressMargin, DEF_PROGRESS_MARGIN))
+                .setFastStrokeEnabled(a.getBoolean(R.styleable.DownloadButtonProgress_fastStrokeEnabled, DEF_FAST_STROKE_ENABLED));
+
+        int icIdleDrawableId = a.getResourceId(R.styleable.DownloadButtonProgress_idleIconDrawable, R.drawable.ic_default_download);
+        Drawable idleIcon = drawableCache.getDrawable(res, icIdleDrawableId);
+        builder.setIdleIcon(idleIcon)
+                .setIdleIconWidth(a.getDimensionPixelSize(R.styleable.DownloadButtonProgress_idleIconWidth, idleIcon.getMinimumWidth()))
+                .setIdleIconHeight(a.getDimensionPixelSize(R.styleable.DownloadButtonProgress_idleIconHeight, idleIcon.getMinimumHeight()));
+
+        int icCancelDrawableId = a.getResourceId(R.styleable.DownloadButtonProgress_cancelIconDrawable, R.drawable.ic_default_cancel);
+        Drawable cancelIcon = drawableCache.getDrawable(res, icCancelDrawableId);
+        builder.setCancelIcon(cancelIcon)
+                .setCancelIconWidth(a.getDimensionPixelSize(R.styleable.DownloadButtonProgress_cancelIconWidth, cancelIcon.getMinimumWidth()))
+                .setCancelIconHeight(a.getDimensionPixelSize(R.styleable.DownloadButtonProgress_cancelIconHeight, cancelIcon.getMinimumHeight()));
+
+        int icFinishDrawableId = a.getResourceId(R.styleable.DownloadButtonProgress_finishIconDrawable, R.drawable.ic_default_finish);
+        Drawable finishIcon = drawableCache.getDrawable(res, icFinishDrawableId);
+        builder.setFinishIcon(finishIcon)
+                .setFinishIconWidth(a.getDimensionPixelSize(R.styleable.DownloadButtonProgress_finishIconWidth, finishIcon.getMinimumWidth()))
+                .setFinishIconHeight(a.getDimensionPixelSize(R.styleable.DownloadButtonProgress_finishIconHeight, finishIcon.getMinimumHeight()));
+
+        return builder.build();
+    }
+
+    /**
+     * @return copy of drawable with its own state, null when drawable is null or has no constant
+     * state to copy
+     */
+    static Drawable newCopy(Drawable drawable) {
+        Drawable.ConstantState state = drawable != null ? drawable.getConstantState() : null;
+        return state != null ? state.newDrawable().mutate() : null;
+    }
+
+    /**
+     * @return builder initialized with the values of this style
+     */
+    public Builder buildUpon() {
+        return new Builder(this);
+    }
+
+    public Drawable getIdleIcon() {
+        return mIdleIcon;
+    }
+
+    public Drawable getCancelIcon() {
+        return mCancelIcon;
+    }
+
+    public Drawable getFinishIcon() {
+        return mFinishIcon;
+    }
+
+    public boolean isCancelable() {
+        return mCancelable;
+    }
+
+    public int getIdleIconWidth() {
+        return mIdleIconWidth;
+    }
+
+    public int getIdleIconHeight() {
+        return mIdleIconHeight;
+    }
+
+    public int getCancelIconWidth() {
+        return mCancelIconWidth;
+    }
+
+    public int getCancelIconHeight() {
+        return mCancelIconHeight;
+    }
+
+    public int getFinishIconWidth() {
+        return mFinishIconWidth;
+    }
+
+    public int getFinishIconHeight() {
+        return mFinishIconHeight;
+    }
+
+    public int getIdleBgColor() {
+        return mIdleBgColor;
+    }
+
+    public int getFinishBgColor() {
+        return mFinishBgColor;
+    }
+
+    public int getIndeterminateBgColor() {
+        return mIndeterminateBgColor;
+    }
+
+    public int getDeterminateBgColor() {
+        return mDeterminateBgColor;
+    }
+
+    public Drawable getIdleBgDrawable() {
+        return mIdleBgDrawable;
+    }
+
+    public Drawable getFinishBgDrawable() {
+        return mFinishBgDrawable;
+    }
+
+    public Drawable getIndeterminateBgDrawable() {
+        return mIndeterminateBgDrawable;
+    }
+
+    public Drawable getDeterminateBgDrawable() {
+        return mDeterminateBgDrawable;
+    }
+
+    public int getProgressIndeterminateSweepAngle() {
+        return mProgressIndeterminateSweepAngle;
+    }
+
+    public int getProgressDeterminateColor() {
+        return mProgressDeterminateColor;
+    }
+
+    public int getProgressIndeterminateColor() {
+        return mProgressIndeterminateColor;
+    }
+
+    public int getProgressMargin() {
+        return mProgressMargin;
+    }
+
+    public float getProgressWidth() {
+        return mProgressWidth;
+    }
+
+    public boolean isFastStrokeEnabled() {
+        return mFastStrokeEnabled;
+    }
+
+    Drawable getBgDrawable(int state) {
+        switch (state) {
+            case DownloadProgressDrawable.STATE_INDETERMINATE: return mIndeterminateBgDrawable;
+            case DownloadProgressDrawable.STATE_DETERMINATE: return mDeterminateBgDrawable;
+            case DownloadProgressDrawable.STATE_FINISHED: return mFinishBgDrawable;
+            default: return mIdleBgDrawable;
+        }
+    }
+
+    Paint getBgPaint(int state) {
+        switch (state) {
+            case DownloadProgressDrawable.STATE_INDETERMINATE: return mIndeterminateBgPaint;
+            case DownloadProgressDrawable.STATE_DETERMINATE: return mDeterminateBgPaint;
+            case DownloadProgressDrawable.STATE_FINISHED: return mFinishBgPaint;
+            default: return mIdleBgPaint;
+        }
+    }
+
+    Paint getProgressDeterminatePaint() {
+        return mProgressDeterminatePaint;
+    }
+
+    Paint getProgressIndeterminatePaint() {
+        return mProgressIndeterminatePaint;
+    }
+
+    private static Paint newBgPaint(int color) {
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setColor(color);
+        return paint;
+    }
+
+    private Paint newProgressPaint(int color) {
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setStyle(Paint.Style.STROKE);
+        paint.setDither(true);
+        paint.setStrokeJoin(Paint.Join.ROUND);
+        paint.setStrokeCap(Paint.Cap.ROUND);
+        paint.setStrokeWidth(mProgressWidth);
+        paint.setColor(color);
+        if (!mFastStrokeEnabled) paint.setPathEffect(new CornerPathEffect(LEGACY_STROKE_CORNER_RADIUS));
+        return paint;
+    }
+
+    public static final class Builder {
+
+        private Drawable mIdleIcon;
+        private Drawable mCancelIcon;
+        private Drawable mFinishIcon;
+
+        private boolean mCancelable = DEF_CANCELABLE;
+
+        private int mIdleIconWidth;
+        private int mIdleIconHeight;
+        private int mCancelIconWidth;
+        private int mCancelIconHeight;
+        private int mFinishIconWidth;
+        private int mFinishIconHeight;
+
+        private int mIdleBgColor = DEF_BG_COLOR;
+        private int mFinishBgColor = DEF_BG_COLOR;
+        private int mIndeterminateBgColor = DEF_BG_COLOR;
+        private int mDeterminateBgColor = DEF_BG_COLOR;
+
+        private Drawable mIdleBgDrawable;
+        private Drawable mFinishBgDrawable;
+        private Drawable mIndeterminateBgDrawable;
+        private Drawable mDeterminateBgDrawable;
+
+        private int mProgressIndeterminateSweepAngle = DEF_PROGRESS_INDETERMINATE_WIDTH;
+        private int mProgressDeterminateColor = DEF_DETERMINATE_COLOR;
+        private int mProgressIndeterminateColor = DEF_INDETERMINATE_COLOR;
+        private int mProgressMargin = DEF_PROGRESS_MARGIN;
+        private float mProgressWidth = DEF_PROGRESS_WIDTH;
+        private boolean mFastStrokeEnabled = DEF_FAST_STROKE_ENABLED;
+
+        /**
+         * Builder with the default values, the default icons are loaded from res
+         */
+        public Builder(Resources res) {
+            DrawableCache drawableCache = DrawableCache.getInstance();
+
+            mIdleIcon = drawableCache.getDrawable(res, R.drawable.ic_default_download);
+            mIdleIconWidth = mIdleIcon.getMinimumWidth();
+            mIdleIconHeight = mIdleIcon.getMinimumHeight();
+
+            mCancelIcon = drawableCache.getDrawable(res, R.drawable.ic_default_cancel);
+            mCancelIconWidth = mCancelIcon.getMinimumWidth();
+            mCancelIconHeight = mCancelIcon.getMinimumHeight();
+
+            mFinishIcon = drawableCache.getDrawable(res, R.drawable.ic_default_finish);
+            mFinishIconWidth = mFinishIcon.getMinimumWidth();
+            mFinishIconHeight = mFinishIcon.getMinimumHeight();
+        }
+
+        public Builder(ButtonProgressStyle style) {
+            mIdleIcon = style.mIdleIcon;
+            mCancelIcon = style.mCancelIcon;
+            mFinishIcon = style.mFinishIcon;
+            mCancelable = style.mCancelable;
+            mIdleIconWidth = style.mIdleIconWidth;
+            mIdleIconHeight = style.mIdleIconHeight;
+            mCancelIconWidth = style.mCancelIconWidth;
+            mCancelIconHeight = style.mCancelIconHeight;
+            mFinishIconWidth = style.mFinishIconWidth;
+            mFinishIconHeight = style.mFinishIconHeight;
+            mIdleBgColor = style.mIdleBgColor;
+            mFinishBgColor = style.mFinishBgColor;
+            mIndeterminateBgColor = style.mIndeterminateBgColor;
+            mDeterminateBgColor = style.mDeterminateBgColor;
+            mIdleBgDrawable = style.mIdleBgDrawable;
+            mFinishBgDrawable = style.mFinishBgDrawable;
+            mIndeterminateBgDrawable = style.mIndeterminateBgDrawable;
+            mDeterminateBgDrawable = style.mDeterminateBgDrawable;
+            mProgressIndeterminateSweepAngle = style.mProgressIndeterminateSweepAngle;
+            mProgressDeterminateColor = style.mProgressDeterminateColor;
+            mProgressIndeterminateColor = style.mProgressIndeterminateColor;
+            mProgressMargin = style.mProgressMargin;
+            mProgressWidth = style.mProgressWidth;
+            mFastStrokeEnabled = style.mFastStrokeEnabled;
+        }
+
+        public Builder setIdleIcon(Drawable idleIcon) {
+            mIdleIcon = idleIcon;
+            return this;
+        }
+
+        public Builder setCancelIcon(Drawable cancelIcon) {
+            mCancelIcon = cancelIcon;
+            return this;
+        }
+
+        public Builder setFinishIcon(Drawable finishIcon) {
+            mFinishIcon = finishIcon;
+            return this;
+        }
+
+        public Builder setCancelable(boolean cancelable) {
+            mCancelable = cancelable;
+            return this;
+        }
+
+        public Builder setIdleIconWidth(int idleIconWidth) {
+            mIdleIconWidth = idleIconWidth;
+            return this;
+        }
+
+        public Builder setIdleIconHeight(int idleIconHeight) {
+            mIdleIconHeight = idleIconHeight;
+            return this;
+        }
+
+        public Builder setCancelIconWidth(int cancelIconWidth) {
+            mCancelIconWidth = cancelIconWidth;
+            return this;
+        }
+
+        public Builder setCancelIconHeight(int cancelIconHeight) {
+            mCancelIconHeight = cancelIconHeight;
+            return this;
+        }
+
+        public Builder setFinishIconWidth(int finishIconWidth) {
+            mFinishIconWidth = finishIconWidth;
+            return this;
+        }
+
+        public Builder setFinishIconHeight(int finishIconHeight) {
+            mFinishIconHeight = finishIconHeight;
+            return this;
+        }
+
+        public Builder setIdleBgColor(int idleBgColor) {
+            mIdleBgColor = idleBgColor;
+            return this;
+        }
+
+        public Builder setFinishBgColor(int finishBgColor) {
+            mFinishBgColor = finishBgColor;
+            return this;
+        }
+
+        public Builder setIndeterminateBgColor(int indeterminateBgColor) {
+            mIndeterminateBgColor = indeterminateBgColor;
+            return this;
+        }
+
+        public Builder setDeterminateBgColor(int determinateBgColor) {
+            mDeterminateBgColor = determinateBgColor;
+            return this;
+        }
+
+        public Builder setIdleBgDrawable(Drawable idleBgDrawable) {
+            mIdleBgDrawable = idleBgDrawable;
+            return this;
+        }
+
+        public Builder setFinishBgDrawable(Drawable finishBgDrawable) {
+            mFinishBgDrawable = finishBgDrawable;
+            return this;
+        }
+
+        public Builder setIndeterminateBgDrawable(Drawable indeterminateBgDrawable) {
+            mIndeterminateBgDrawable = indeterminateBgDrawable;
+            return this;
+        }
+
+        public Builder setDeterminateBgDrawable(Drawable determinateBgDrawable) {
+            mDeterminateBgDrawable = determinateBgDrawable;
+            return this;
+        }
+
+        public Builder setProgressIndeterminateSweepAngle(int progressIndeterminateSweepAngle) {
+            mProgressIndeterminateSweepAngle = progressIndeterminateSweepAngle;
+            return this;
+        }
+
+        public Builder setProgressDeterminateColor(int progressDeterminateColor) {
+            mProgressDeterminateColor = progressDeterminateColor;
+            return this;
+        }
+
+        public Builder setProgressIndeterminateColor(int progressIndeterminateColor) {
+            mProgressIndeterminateColor = progressIndeterminateColor;
+            return this;
+        }
+
+        public Builder setProgressMargin(int progressMargin) {
+            mProgressMargin = progressMargin;
+            return this;
+        }
+
+        public Builder setProgressWidth(float progressWidth) {
+            mProgressWidth = progressWidth;
+            return this;
+        }
+
+        /**
+         * @see DownloadProgressDrawable#setFastStrokeEnabled(boolean)
+         */
+        public Builder setFastStrokeEnabled(boolean fastStrokeEnabled) {
+            mFastStrokeEnabled = fastStrokeEnabled;
+            return this;
+        }
+
+        public ButtonProgressStyle build() {
+            return new ButtonProgressStyle(this);
+        }
+    }
+}
@@ -1,23 +1,23 @@
 package com.github.abdularis.buttonprogress;
 
-import android.animation.ValueAnimator;
 import android.content.Context;
 import android.content.res.Resources;
 import android.content.res.TypedArray;
 import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.CornerPathEffect;
-import android.graphics.Paint;
-import android.graphics.RectF;
 import android.graphics.drawable.Drawable;
-import android.os.Bundle;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Parcel;
 import android.os.Parcelable;
 import android.util.AttributeSet;
+import android.util.Log;
 import android.view.View;
-import android.view.animation.LinearInterpolator;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Created by abdularis on 02/01/18.
@@ -30,87 +30,102 @@ import java.util.List;
  *
  * you can use this view to make a download or upload button, you might also use this for another
  * purpose.
+ *
+ * Rendering is done by {@link DownloadProgressDrawable}, which can also be used without this view
+ * e.g. as an ImageView drawable or a TextView compound drawable.
+ *
+ * State and progress are kept by a {@link ProgressStateMachine}, only its allowed transitions
+ * are applied, rejected ones are logged. The drawable and the state listeners follow it on the
+ * main thread. Unlike in 1.1.0, setting the current state again changes nothing (the progress is
+ * kept and the listeners are not called), and a finished button has to be set idle before it can
+ * be set indeterminate or determinate again.
+ *
+ * Wrap content sizes the button to the intrinsic size of the drawable (the largest icon plus the
+ * ring). Only style changes altering that size request a layout, state and progress changes
+ * never do.
  */
 
 public class DownloadButtonProgress extends View implements View.OnClickListener {
 
-    private static final String INSTANCE_STATE = "saved_instance";
-    private static final String INSTANCE_MAX_PROGRESS = "max_progress";
-    private static final String INSTANCE_CURRENT_PROGRESS = "current_progress";
-    private static final String INSTANCE_CURRENT_STATE = "current_state";
-    private static final String INSTANCE_CANCELABLE = "cancelable";
-    private static final String INSTANCE_IDLE_WIDTH = "idle_width";
-    private static final String INSTANCE_IDLE_HEIGHT = "idle_height";
-    private static final String INSTANCE_CANCEL_WIDTH = "cancel_width";
-    private static final String INSTANCE_CANCEL_HEIGHT = "cancel_height";
-    private static final String INSTANCE_FINISH_WIDTH = "finish_width";
-    private static final String INSTANCE_FINISH_HEIGHT = "finish_height";
-    private static final String INSTANCE_IDLE_BG_COLOR = "idle_bg_color";
-    private static final String INSTANCE_FINISH_BG_COLOR = "finish_bg_color";
-    private static final String INSTANCE_INDETERMINATE_BG_COLOR = "indeterminate_bg_color";
-    private static final String INSTANCE_DETERMINATE_BG_COLOR = "determinate_bg_color";
-    private static final String INSTANCE_PROGRESS_DETERMINATE_COLOR = "prog_det_color";
-    private static final String INSTANCE_PROGRESS_INDETERMINATE_COLOR = "prog_indet_color";
-    private static final String INSTANCE_PROGRESS_MARGIN = "prog_margin";
-
-    public static final int STATE_IDLE = 1;
-    public static final int STATE_INDETERMINATE = 2;
-    public static final int STATE_DETERMINATE = 3;
-    public static final int STATE_FINISHED = 4;
-
-    private static final int BASE_START_ANGLE = -90;
-    private static final int DEF_BG_COLOR = 0xB4000000;
-    private static final boolean DEF_CANCELABLE = true;
-    private static final int DEF_DETERMINATE_COLOR = Color.GREEN;
-    private static final int DEF_INDETERMINATE_COLOR = Color.WHITE;
-    private static final int DEF_PROGRESS_WIDTH = 8;
-    private static final int DEF_PROGRESS_MARGIN = 5;
-    private static final int DEF_PROGRESS_INDETERMINATE_WIDTH = 90;
-
-
-    private Drawable mIdleIcon;
-    private Drawable mCancelIcon;
-    private Drawable mFinishIcon;
-
-    private boolean mCancelable = DEF_CANCELABLE;
-
-    private int mIdleIconWidth;
-    private int mIdleIconHeight;
-    private int mCancelIconWidth;
-    private int mCancelIconHeight;
-    private int mFinishIconWidth;
-    private int mFinishIconHeight;
-
-    private int mCurrState = STATE_IDLE;
-    private int mMaxProgress = 100;
-    private int mCurrProgress = 0;
-
-    private int mIdleBgColor = DEF_BG_COLOR;
-    private int mFinishBgColor = DEF_BG_COLOR;
-    private int mIndeterminateBgColor = DEF_BG_COLOR;
-    private int mDeterminateBgColor = DEF_BG_COLOR;
-
-    private Drawable mIdleBgDrawable;
-    private Drawable mFinishBgDrawable;
-    private Drawable mIndeterminateBgDrawable;
-    private Drawable mDeterminateBgDrawable;
-
-    private ValueAnimator mIndeterminateAnimator;
-    private int mCurrIndeterminateBarPos;
-    private int mProgressIndeterminateSweepAngle = DEF_PROGRESS_INDETERMINATE_WIDTH;
-
-    private int mProgressDeterminateColor = DEF_DETERMINATE_COLOR;
-    private int mProgressIndeterminateColor = DEF_INDETERMINATE_COLOR;
-    private int mProgressMargin = DEF_PROGRESS_MARGIN;
-
-    private final Paint mBgPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-    private final RectF mBgRect = new RectF();
-
-    private final Paint mProgressPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
-    private final RectF mProgressRect = new RectF();
-
-    private final List<OnClickListener> mClickListeners = new ArrayList<>();
-    private final List<OnStateChangedListener> mOnStateChangedListeners = new ArrayList<>();
+    public static final int STATE_IDLE = DownloadProgressDrawable.STATE_IDLE;
+    public static final int STATE_INDETERMINATE = DownloadProgressDrawable.STATE_INDETERMINATE;
+    public static final int STATE_DETERMINATE = DownloadProgressDrawable.STATE_DETERMINATE;
+    public static final int STATE_FINISHED = DownloadProgressDrawable.STATE_FINISHED;
+
+    private static final String TAG = "DownloadButtonProgress";
+    private static final boolean DEF_SAVE_DYNAMIC_STATE_ONLY = false;
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    private final DownloadProgressDrawable mDrawable;
+    private boolean mAttachedToWindow;
+    private boolean mSaveDynamicStateOnly = DEF_SAVE_DYNAMIC_STATE_ONLY;
+    // intrinsic size of the drawable at the last measure
+    private int mMeasuredIntrinsicWidth;
+    private int mMeasuredIntrinsicHeight;
+
+    // set by ProgressRegistry while this button is bound to one of its ids, the others are guarded
+    // by the registry
+    volatile ProgressRegistry mRegistry;
+    long mRegistryId;
+    // sequence of the reset showing the bound id, and of the last transition written back to it
+    long mRegistryResetSequence;
+    long mRegistrySequence;
+
+    private final ListenerList<OnClickListener> mClickListeners = new ListenerList<>();
+    private final ListenerList<OnStateChangedListener> mOnStateChangedListeners = new ListenerList<>();
+
+    // set on the main thread, told about transitions on the thread making them
+    private volatile SourceSubscriber mSourceSubscriber;
+
+    private final ProgressStateMachine mStateMachine = new ProgressStateMachine(new ProgressStateMachine.Observer() {
+        @Override
+        public void onStateChanged(int oldState, int newState, long sequence) {
+            // only applied transitions get here, not restored or rebound states
+            ButtonProgressMetrics.recordTransition(oldState, newState);
+            mPendingStates.put(sequence, newState);
+            SourceSubscriber subscriber = mSourceSubscriber;
+            if (subscriber != null) subscriber.onStateChanged(newState, sequence);
+            ProgressRegistry registry = mRegistry;
+            if (registry != null) registry.onViewStateChanged(DownloadButtonProgress.this, newState, sequence);
+            onStateMachineChanged();
+        }
+
+        @Override
+        public void onProgressChanged(int progress, int maxProgress) {
+            onStateMachineChanged();
+        }
+
+        @Override
+        public void onTransitionRejected(int state, int rejectedState) {
+            Log.w(TAG, "Ignored invalid transition from state " + state + " to " + rejectedState);
+        }
+
+        @Override
+        public void onProgressRejected(int state, int rejectedProgress) {
+            // expected, e.g. a worker still publishing after a cancel
+        }
+    });
+
+    // states the drawable and the listeners still have to go through, by transition sequence
+    private final ConcurrentSkipListMap<Long, Integer> mPendingStates = new ConcurrentSkipListMap<>();
+    // sequence of the next transition to go through, main thread only
+    private long mNextStateSequence;
+    private final AtomicBoolean mPublishScheduled = new AtomicBoolean();
+    private final Runnable mPostPublished = new Runnable() {
+        @Override
+        public void run() {
+            postPublished();
+        }
+    };
+    private final Runnable mApplyPublished = new Runnable() {
+        @Override
+        public void run() {
+            // cleared first so changes made from now on schedule another frame
+            mPublishScheduled.set(false);
+            syncWithStateMachine();
+        }
+    };
 
     public DownloadButtonProgress(Context context) {
         this(context, null);
@@ -120,548 +135,957 @@ public class DownloadButtonProgress extends View implements View.OnClickListener
         super(context, attrs);
         super.setOnClickListener(this);
 
-        initIndeterminateAnimator();
-
-        mProgressPaint.setStyle(Paint.Style.STROKE);
-        mProgressPaint.setDither(true);
-        mProgressPaint.setStrokeJoin(Paint.Join.ROUND);
-        mProgressPaint.setStrokeCap(Paint.Cap.ROUND);
-        mProgressPaint.setPathEffect(new CornerPathEffect(50f));
-
         Resources res = context.getResources();
+        ButtonProgressStyle style;
+        int state = STATE_IDLE;
+        int progress = 0;
+        int maxProgress = DownloadProgressDrawable.DEF_MAX_PROGRESS;
+        boolean layerCacheEnabled = DownloadProgressDrawable.DEF_LAYER_CACHE_ENABLED;
+        boolean smoothProgressEnabled = DownloadProgressDrawable.DEF_SMOOTH_PROGRESS_ENABLED;
+        int spinnerMaxFrameRate = DownloadProgressDrawable.DEF_SPINNER_MAX_FRAME_RATE;
+        boolean hardwareSpinEnabled = DownloadProgressDrawable.DEF_HARDWARE_SPIN_ENABLED;
         if (attrs != null) {
             TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.DownloadButtonProgress, 0, 0);
 
-            initBackgroundDrawableFromAttribs(res, a);
-
-            mCurrState = a.getInt(R.styleable.DownloadButtonProgress_state, STATE_IDLE);
-            mCancelable = a.getBoolean(R.styleable.DownloadButtonProgress_cancelable, DEF_CANCELABLE);
-            mProgressIndeterminateSweepAngle = a.getInteger(R.styleable.DownloadButtonProgress_progressIndeterminateSweepAngle, DEF_PROGRESS_INDETERMINATE_WIDTH);
-            mProgressDeterminateColor = a.getColor(R.styleable.DownloadButtonProgress_progressDeterminateColor, DEF_DETERMINATE_COLOR);
-            mProgressIndeterminateColor = a.getColor(R.styleable.DownloadButtonProgress_progressIndeterminateColor, DEF_INDETERMINATE_COLOR);
-            mProgressPaint.setStrokeWidth(
-                    a.getDimensionPixelSize(R.styleable.DownloadButtonProgress_progressWidth, DEF_PROGRESS_WIDTH)
-            );
-            mProgressMargin = a.getDimensionPixelSize(R.styleable.DownloadButtonProgress_progressMargin, DEF_PROGRESS_MARGIN);
-            mCurrProgress = a.getInteger(R.styleable.DownloadButtonProgress_currentProgress, 0);
-            mMaxProgress = a.getInteger(R.styleable.DownloadButtonProgress_maxProgress, 100);
-
-            int icIdleDrawableId = a.getResourceId(R.styleable.DownloadButtonProgress_idleIconDrawable, R.drawable.ic_default_download);
-            mIdleIcon = res.getDrawable(icIdleDrawableId);
-            mIdleIconWidth = a.getDimensionPixelSize(R.styleable.DownloadButtonProgress_idleIconWidth, mIdleIcon.getMinimumWidth());
-            mIdleIconHeight = a.getDimensionPixelSize(R.styleable.DownloadButtonProgress_idleIconHeight, mIdleIcon.getMinimumHeight());
-
-            int icCancelDrawableId = a.getResourceId(R.styleable.DownloadButtonProgress_cancelIconDrawable, R.drawable.ic_default_cancel);
-            mCancelIcon = res.getDrawable(icCancelDrawableId);
-            mCancelIconWidth = a.getDimensionPixelSize(R.styleable.DownloadButtonProgress_cancelIconWidth, mCancelIcon.getMinimumWidth());
-            mCancelIconHeight = a.getDimensionPixelSize(R.styleable.DownloadButtonProgress_cancelIconHeight, mCancelIcon.getMinimumHeight());
-
-            int icFinishDrawableId = a.getResourceId(R.styleable.DownloadButtonProgress_finishIconDrawable, R.drawable.ic_default_finish);
-            mFinishIcon = res.getDrawable(icFinishDrawableId);
-            mFinishIconWidth = a.getDimensionPixelSize(R.styleable.DownloadButtonProgress_finishIconWidth, mFinishIcon.getMinimumWidth());
-            mFinishIconHeight = a.getDimensionPixelSize(R.styleable.DownloadButtonProgress_finishIconHeight, mFinishIcon.getMinimumHeight());
+            style = StyleCache.getInstance().getStyle(res, a);
+            state = a.getInt(R.styleable.DownloadButtonProgress_state, STATE_IDLE);
+            progress = a.getInteger(R.styleable.DownloadButtonProgress_currentProgress, 0);
+            maxProgress = Math.max(1, a.getInteger(R.styleable.DownloadButtonProgress_maxProgress, DownloadProgressDrawable.DEF_MAX_PROGRESS));
+            layerCacheEnabled = a.getBoolean(R.styleable.DownloadButtonProgress_layerCacheEnabled, DownloadProgressDrawable.DEF_LAYER_CACHE_ENABLED);
+            smoothProgressEnabled = a.getBoolean(R.styleable.DownloadButtonProgress_smoothProgressEnabled, DownloadProgressDrawable.DEF_SMOOTH_PROGRESS_ENABLED);
+            spinnerMaxFrameRate = a.getInteger(R.styleable.DownloadButtonProgress_spinnerMaxFrameRate, DownloadProgressDrawable.DEF_SPINNER_MAX_FRAME_RATE);
+            hardwareSpinEnabled = a.getBoolean(R.styleable.DownloadButtonProgress_hardwareSpinEnabled, DownloadProgressDrawable.DEF_HARDWARE_SPIN_ENABLED);
+            mSaveDynamicStateOnly = a.getBoolean(R.styleable.DownloadButtonProgress_saveDynamicStateOnly, DEF_SAVE_DYNAMIC_STATE_ONLY);
 
             a.recycle();
         } else {
-            mProgressPaint.setStrokeWidth(DEF_PROGRESS_WIDTH);
-
-            mIdleIcon = res.getDrawable(R.drawable.ic_default_download);
-            mIdleIconWidth = mIdleIcon.getMinimumWidth();
-            mIdleIconHeight = mIdleIcon.getMinimumHeight();
-
-            mCancelIcon = res.getDrawable(R.drawable.ic_default_cancel);
-            mCancelIconWidth = mCancelIcon.getMinimumWidth();
-            mCancelIconHeight = mCancelIcon.getMinimumHeight();
-
-            mFinishIcon = res.getDrawable(R.drawable.ic_default_finish);
-            mFinishIconWidth = mFinishIcon.getMinimumWidth();
-            mFinishIconHeight = mFinishIcon.getMinimumHeight();
+            style = StyleCache.getInstance().getDefaultStyle(res);
         }
 
-        if (mCurrState == STATE_INDETERMINATE)
-            setIndeterminate();
+        mDrawable = new DownloadProgressDrawable(style);
+        // hidden until attached to a visible window, so the spinner does not run before that
+        mDrawable.setVisible(false, false);
+        mDrawable.setCallback(this);
+        mDrawable.setMaxProgress(maxProgress);
+        mDrawable.setLayerCacheEnabled(layerCacheEnabled);
+        mDrawable.setSmoothProgressEnabled(smoothProgressEnabled);
+        mDrawable.setSpinnerMaxFrameRate(spinnerMaxFrameRate);
+        mDrawable.setHardwareSpinEnabled(hardwareSpinEnabled);
+
+        mNextStateSequence = mStateMachine.reset(state, progress, maxProgress) + 1;
+        if (state != STATE_IDLE) {
+            mDrawable.setState(state);
+            mDrawable.showProgress(mStateMachine.getProgress());
+        }
     }
 
-    private void initBackgroundDrawableFromAttribs(Resources res, TypedArray attrs) {
-        int idleResId = attrs.getResourceId(R.styleable.DownloadButtonProgress_idleBackgroundDrawable, -1);
-        int finishResId = attrs.getResourceId(R.styleable.DownloadButtonProgress_finishBackgroundDrawable, -1);
-        int indeterminateResId = attrs.getResourceId(R.styleable.DownloadButtonProgress_indeterminateBackgroundDrawable, -1);
-        int determinateResId = attrs.getResourceId(R.styleable.DownloadButtonProgress_determinateBackgroundDrawable, -1);
+    /**
+     * @return drawable rendering this button, changing its state directly does not notify the
+     * state listeners
+     */
+    public DownloadProgressDrawable getProgressDrawable() {
+        return mDrawable;
+    }
 
-        if (idleResId != -1) mIdleBgDrawable = res.getDrawable(idleResId);
-        if (finishResId != -1) mFinishBgDrawable = res.getDrawable(finishResId);
-        if (indeterminateResId != -1) mIndeterminateBgDrawable = res.getDrawable(indeterminateResId);
-        if (determinateResId != -1) mDeterminateBgDrawable = res.getDrawable(determinateResId);
+    public ButtonProgressStyle getStyle() {
+        return mDrawable.getStyle();
+    }
 
-        mIdleBgColor = attrs.getColor(R.styleable.DownloadButtonProgress_idleBackgroundColor, DEF_BG_COLOR);
-        mFinishBgColor = attrs.getColor(R.styleable.DownloadButtonProgress_finishBackgroundColor, DEF_BG_COLOR);
-        mIndeterminateBgColor = attrs.getColor(R.styleable.DownloadButtonProgress_indeterminateBackgroundColor, DEF_BG_COLOR);
-        mDeterminateBgColor = attrs.getColor(R.styleable.DownloadButtonProgress_determinateBackgroundColor, DEF_BG_COLOR);
+    /**
+     * @see DownloadProgressDrawable#setStyle(ButtonProgressStyle)
+     */
+    public void setStyle(ButtonProgressStyle style) {
+        mDrawable.setStyle(style);
+        requestLayoutIfSizeChanged();
     }
 
     public int getCurrState() {
-        return mCurrState;
+        return mStateMachine.getState();
     }
 
     public int getMaxProgress() {
-        return mMaxProgress;
+        return mStateMachine.getMaxProgress();
     }
 
     public int getCurrentProgress() {
-        return mCurrProgress;
+        return mStateMachine.getProgress();
     }
 
+    /**
+     * @return copy of the idle icon, the icon of the style is shared with other buttons and must not
+     * be changed. Changing the copy does not change this button, set it back with
+     * {@link #setIdleIcon(Drawable)}. An icon without constant state is returned as is.
+     */
     public Drawable getIdleIcon() {
-        return mIdleIcon;
+        return copyOf(mDrawable.getIdleIcon());
     }
 
+    /**
+     * @return copy of the cancel icon, see {@link #getIdleIcon()}
+     */
     public Drawable getCancelIcon() {
-        return mCancelIcon;
+        return copyOf(mDrawable.getCancelIcon());
     }
 
+    /**
+     * @return copy of the finish icon, see {@link #getIdleIcon()}
+     */
     public Drawable getFinishIcon() {
-        return mFinishIcon;
+        return copyOf(mDrawable.getFinishIcon());
     }
 
     public boolean isCancelable() {
-        return mCancelable;
+        return mDrawable.isCancelable();
     }
 
     public int getIdleIconWidth() {
-        return mIdleIconWidth;
+        return mDrawable.getIdleIconWidth();
     }
 
     public int getIdleIconHeight() {
-        return mIdleIconHeight;
+        return mDrawable.getIdleIconHeight();
     }
 
     public int getCancelIconWidth() {
-        return mCancelIconWidth;
+        return mDrawable.getCancelIconWidth();
     }
 
     public int getCancelIconHeight() {
-        return mCancelIconHeight;
+        return mDrawable.getCancelIconHeight();
     }
 
     public int getFinishIconWidth() {
-        return mFinishIconWidth;
+        return mDrawable.getFinishIconWidth();
     }
 
     public int getFinishIconHeight() {
-        return mFinishIconHeight;
+        return mDrawable.getFinishIconHeight();
     }
 
     public int getIdleBgColor() {
-        return mIdleBgColor;
+        return mDrawable.getIdleBgColor();
     }
 
     public int getFinishBgColor() {
-        return mFinishBgColor;
+        return mDrawable.getFinishBgColor();
     }
 
     public int getIndeterminateBgColor() {
-        return mIndeterminateBgColor;
+        return mDrawable.getIndeterminateBgColor();
     }
 
     public int getDeterminateBgColor() {
-        return mDeterminateBgColor;
+        return mDrawable.getDeterminateBgColor();
     }
 
+    /**
+     * @return copy of the idle background, see {@link #getIdleIcon()}
+     */
     public Drawable getIdleBgDrawable() {
-        return mIdleBgDrawable;
+        return copyOf(mDrawable.getIdleBgDrawable());
     }
 
+    /**
+     * @return copy of the finish background, see {@link #getIdleIcon()}
+     */
     public Drawable getFinishBgDrawable() {
-        return mFinishBgDrawable;
+        return copyOf(mDrawable.getFinishBgDrawable());
     }
 
+    /**
+     * @return copy of the indeterminate background, see {@link #getIdleIcon()}
+     */
     public Drawable getIndeterminateBgDrawable() {
-        return mIndeterminateBgDrawable;
+        return copyOf(mDrawable.getIndeterminateBgDrawable());
     }
 
+    /**
+     * @return copy of the determinate background, see {@link #getIdleIcon()}
+     */
     public Drawable getDeterminateBgDrawable() {
-        return mDeterminateBgDrawable;
+        return copyOf(mDrawable.getDeterminateBgDrawable());
     }
 
     public int getProgressDeterminateColor() {
-        return mProgressDeterminateColor;
+        return mDrawable.getProgressDeterminateColor();
     }
 
     public int getProgressIndeterminateColor() {
-        return mProgressIndeterminateColor;
+        return mDrawable.getProgressIndeterminateColor();
     }
 
     public int getProgressMargin() {
-        return mProgressMargin;
+        return mDrawable.getProgressMargin();
     }
 
     public int getProgressIndeterminateSweepAngle() {
-        return mProgressIndeterminateSweepAngle;
+        return mDrawable.getProgressIndeterminateSweepAngle();
     }
 
-    public void setCurrentProgress(int progress) {
-        if (mCurrState != STATE_DETERMINATE) return;
-        mCurrProgress = Math.min(progress, mMaxProgress);
-        invalidate();
+    public boolean isLayerCacheEnabled() {
+        return mDrawable.isLayerCacheEnabled();
     }
 
-    public void setIdle() {
-        mCurrState = STATE_IDLE;
-        callStateChangedListener(mCurrState);
+    public boolean isFastStrokeEnabled() {
+        return mDrawable.isFastStrokeEnabled();
+    }
 
-        invalidate();
+    public boolean isSmoothProgressEnabled() {
+        return mDrawable.isSmoothProgressEnabled();
     }
 
-    public void setIndeterminate() {
-        mCurrIndeterminateBarPos = BASE_START_ANGLE;
-        mCurrState = STATE_INDETERMINATE;
-        callStateChangedListener(mCurrState);
+    public int getSpinnerMaxFrameRate() {
+        return mDrawable.getSpinnerMaxFrameRate();
+    }
 
-        invalidate();
+    public boolean isHardwareSpinEnabled() {
+        return mDrawable.isHardwareSpinEnabled();
+    }
 
-        mIndeterminateAnimator.start();
+    public ProgressSegments getSegments() {
+        return mDrawable.getSegments();
     }
 
-    public void setDeterminate() {
-        mIndeterminateAnimator.end();
+    public boolean isSaveDynamicStateOnly() {
+        return mSaveDynamicStateOnly;
+    }
 
-        mCurrProgress = 0;
-        mCurrState = STATE_DETERMINATE;
-        callStateChangedListener(mCurrState);
+    /**
+     * @return number of redraws requested by {@link #setCurrentProgress(int)}
+     */
+    public int getInvalidateCount() {
+        return mDrawable.getInvalidateCount();
+    }
 
-        invalidate();
+    /**
+     * @return number of {@link #setCurrentProgress(int)} calls that did not request a redraw
+     * because the arc would not visibly change
+     */
+    public int getSkippedInvalidateCount() {
+        return mDrawable.getSkippedInvalidateCount();
     }
 
-    public void setFinish() {
-        mCurrProgress = 0;
-        mCurrState = STATE_FINISHED;
-        callStateChangedListener(mCurrState);
+    /**
+     * Progress is only taken in {@link #STATE_DETERMINATE}, and capped to the max progress
+     */
+    public void setCurrentProgress(int progress) {
+        ButtonProgressMetrics.recordProgressReceived();
+        mStateMachine.setProgress(progress);
+    }
+
+    /**
+     * Thread safe version of {@link #setMaxProgress(int)} and {@link #setCurrentProgress(int)},
+     * can be called from any thread. The progress is validated right away, the drawable only shows
+     * the latest value on the next frame, so calling this for every received chunk costs at most
+     * one main thread callback per frame. Long values are scaled down when max does not fit in an
+     * int.
+     */
+    public void publishProgress(long current, long max) {
+        publishPackedProgress(packProgress(current, max));
+    }
+
+    /**
+     * @return max in the high 32 bits and current in the low 32 bits, both scaled down when max
+     * does not fit in an int
+     */
+    static long packProgress(long current, long max) {
+        if (max <= 0) throw new IllegalArgumentException("max must be positive: " + max);
+
+        while (max > Integer.MAX_VALUE) {
+            max >>= 1;
+            current >>= 1;
+        }
+        current = Math.max(0, Math.min(current, max));
+        return (max << 32) | current;
+    }
+
+    void publishPackedProgress(long packedProgress) {
+        ButtonProgressMetrics.recordProgressReceived();
+        mStateMachine.setProgress((int) packedProgress, (int) (packedProgress >>> 32));
+    }
+
+    /**
+     * Thread safe version of {@link #setIdle()}, {@link #setIndeterminate()},
+     * {@link #setDeterminate()} and {@link #setFinish()}, can be called from any thread. The
+     * transition is validated right away, the drawable and the listeners go through every applied
+     * state in order on the main thread. Progress published before a state is superseded by it.
+     *
+     * @param state one of {@link #STATE_IDLE}, {@link #STATE_INDETERMINATE},
+     *              {@link #STATE_DETERMINATE} or {@link #STATE_FINISHED}
+     */
+    public void publishState(int state) {
+        mStateMachine.transitionTo(state);
+    }
+
+    /**
+     * Show the progress of source, replacing the source subscribed before. Updates are requested
+     * with backpressure and only the latest one is shown on each frame, so a fast source never
+     * floods the main thread. This button goes indeterminate when subscribed while idle,
+     * determinate on the first progress, finished when the source completes and idle when it fails.
+     * The source is cancelled when this button is set idle or finished meanwhile (e.g. the user
+     * clicked cancel) or by {@link #unsubscribe()}. Main thread only.
+     */
+    public void subscribe(ProgressSource source) {
+        unsubscribe();
+        mSourceSubscriber = new SourceSubscriber(this, mStateMachine);
+        source.subscribe(mSourceSubscriber);
+    }
+
+    /**
+     * Cancel the subscribed source, if any, and leave this button in its current state
+     */
+    public void unsubscribe() {
+        if (mSourceSubscriber != null) {
+            mSourceSubscriber.cancel();
+            mSourceSubscriber = null;
+        }
+    }
+
+    /**
+     * Cancel or reset the download, see {@link ProgressStateMachine} for the allowed transitions
+     */
+    public void setIdle() {
+        mStateMachine.transitionTo(STATE_IDLE);
+    }
+
+    public void setIndeterminate() {
+        mStateMachine.transitionTo(STATE_INDETERMINATE);
+    }
+
+    public void setDeterminate() {
+        mStateMachine.transitionTo(STATE_DETERMINATE);
+    }
 
-        invalidate();
+    public void setFinish() {
+        mStateMachine.transitionTo(STATE_FINISHED);
     }
 
     public void setIdleIcon(Drawable idleIcon) {
-        mIdleIcon = idleIcon;
-        invalidate();
+        mDrawable.setIdleIcon(idleIcon);
     }
 
     public void setCancelIcon(Drawable cancelIcon) {
-        mCancelIcon = cancelIcon;
-        invalidate();
+        mDrawable.setCancelIcon(cancelIcon);
     }
 
     public void setFinishIcon(Drawable finishIcon) {
-        mFinishIcon = finishIcon;
-        invalidate();
+        mDrawable.setFinishIcon(finishIcon);
     }
 
     public void setCancelable(boolean cancelable) {
-        mCancelable = cancelable;
-        invalidate();
+        mDrawable.setCancelable(cancelable);
     }
 
     public void setIdleIconWidth(int idleIconWidth) {
-        mIdleIconWidth = idleIconWidth;
-        invalidate();
+        mDrawable.setIdleIconWidth(idleIconWidth);
+        requestLayoutIfSizeChanged();
     }
 
     public void setIdleIconHeight(int idleIconHeight) {
-        mIdleIconHeight = idleIconHeight;
-        invalidate();
+        mDrawable.setIdleIconHeight(idleIconHeight);
+        requestLayoutIfSizeChanged();
     }
 
     public void setCancelIconWidth(int cancelIconWidth) {
-        mCancelIconWidth = cancelIconWidth;
-        invalidate();
+        mDrawable.setCancelIconWidth(cancelIconWidth);
+        requestLayoutIfSizeChanged();
     }
 
     public void setCancelIconHeight(int cancelIconHeight) {
-        mCancelIconHeight = cancelIconHeight;
-        invalidate();
+        mDrawable.setCancelIconHeight(cancelIconHeight);
+        requestLayoutIfSizeChanged();
     }
 
     public void setFinishIconWidth(int finishIconWidth) {
-        mFinishIconWidth = finishIconWidth;
-        invalidate();
+        mDrawable.setFinishIconWidth(finishIconWidth);
+        requestLayoutIfSizeChanged();
     }
 
     public void setFinishIconHeight(int finishIconHeight) {
-        mFinishIconHeight = finishIconHeight;
-        invalidate();
+        mDrawable.setFinishIconHeight(finishIconHeight);
+        requestLayoutIfSizeChanged();
     }
 
+    /**
+     * Max progress below 1 is taken as 1, as is a max progress attribute below 1
+     */
     public void setMaxProgress(int maxProgress) {
-        mMaxProgress = maxProgress;
-        invalidate();
+        mStateMachine.setMaxProgress(Math.max(1, maxProgress));
     }
 
     public void setIdleBgColor(int idleBgColor) {
-        mIdleBgColor = idleBgColor;
-        invalidate();
+        mDrawable.setIdleBgColor(idleBgColor);
     }
 
     public void setFinishBgColor(int finishBgColor) {
-        mFinishBgColor = finishBgColor;
-        invalidate();
+        mDrawable.setFinishBgColor(finishBgColor);
     }
 
     public void setIndeterminateBgColor(int indeterminateBgColor) {
-        mIndeterminateBgColor = indeterminateBgColor;
-        invalidate();
+        mDrawable.setIndeterminateBgColor(indeterminateBgColor);
     }
 
     public void setDeterminateBgColor(int determinateBgColor) {
-        mDeterminateBgColor = determinateBgColor;
-        invalidate();
+        mDrawable.setDeterminateBgColor(determinateBgColor);
     }
 
     public void setIdleBgDrawable(Drawable idleBgDrawable) {
-        mIdleBgDrawable = idleBgDrawable;
-        invalidate();
+        mDrawable.setIdleBgDrawable(idleBgDrawable);
     }
 
     public void setFinishBgDrawable(Drawable finishBgDrawable) {
-        mFinishBgDrawable = finishBgDrawable;
-        invalidate();
+        mDrawable.setFinishBgDrawable(finishBgDrawable);
     }
 
     public void setIndeterminateBgDrawable(Drawable indeterminateBgDrawable) {
-        mIndeterminateBgDrawable = indeterminateBgDrawable;
-        invalidate();
+        mDrawable.setIndeterminateBgDrawable(indeterminateBgDrawable);
     }
 
     public void setDeterminateBgDrawable(Drawable determinateBgDrawable) {
-        mDeterminateBgDrawable = determinateBgDrawable;
-        invalidate();
+        mDrawable.setDeterminateBgDrawable(determinateBgDrawable);
     }
 
     public void setProgressDeterminateColor(int progressDeterminateColor) {
-        mProgressDeterminateColor = progressDeterminateColor;
-        invalidate();
+        mDrawable.setProgressDeterminateColor(progressDeterminateColor);
     }
 
     public void setProgressIndeterminateColor(int progressIndeterminateColor) {
-        mProgressIndeterminateColor = progressIndeterminateColor;
-        invalidate();
+        mDrawable.setProgressIndeterminateColor(progressIndeterminateColor);
     }
 
     public void setProgressMargin(int progressMargin) {
-        mProgressMargin = progressMargin;
-        invalidate();
+        mDrawable.setProgressMargin(progressMargin);
+        requestLayoutIfSizeChanged();
     }
 
     public void setProgressIndeterminateSweepAngle(int progressIndeterminateSweepAngle) {
-        mProgressIndeterminateSweepAngle = progressIndeterminateSweepAngle;
-        invalidate();
+        mDrawable.setProgressIndeterminateSweepAngle(progressIndeterminateSweepAngle);
+    }
+
+    /**
+     * @see DownloadProgressDrawable#setLayerCacheEnabled(boolean)
+     */
+    public void setLayerCacheEnabled(boolean layerCacheEnabled) {
+        mDrawable.setLayerCacheEnabled(layerCacheEnabled);
     }
 
+    /**
+     * @see DownloadProgressDrawable#setFastStrokeEnabled(boolean)
+     */
+    public void setFastStrokeEnabled(boolean fastStrokeEnabled) {
+        mDrawable.setFastStrokeEnabled(fastStrokeEnabled);
+    }
+
+    /**
+     * @see DownloadProgressDrawable#setSmoothProgressEnabled(boolean)
+     */
+    public void setSmoothProgressEnabled(boolean smoothProgressEnabled) {
+        mDrawable.setSmoothProgressEnabled(smoothProgressEnabled);
+    }
+
+    /**
+     * @see DownloadProgressDrawable#setSpinnerMaxFrameRate(int)
+     */
+    public void setSpinnerMaxFrameRate(int fps) {
+        mDrawable.setSpinnerMaxFrameRate(fps);
+    }
+
+    /**
+     * @see DownloadProgressDrawable#setHardwareSpinEnabled(boolean)
+     */
+    public void setHardwareSpinEnabled(boolean hardwareSpinEnabled) {
+        mDrawable.setHardwareSpinEnabled(hardwareSpinEnabled);
+    }
+
+    /**
+     * @see DownloadProgressDrawable#setSegments(ProgressSegments)
+     */
+    public void setSegments(ProgressSegments segments) {
+        mDrawable.setSegments(segments);
+    }
+
+    /**
+     * Save only the state, progress and max progress of this button in its instance state. The
+     * style (colors, sizes, margin, ...) is then not saved and comes from the layout attributes
+     * when the view is inflated again, which keeps the saved state of screens with many buttons
+     * small. Drawables are never saved.
+     */
+    public void setSaveDynamicStateOnly(boolean saveDynamicStateOnly) {
+        mSaveDynamicStateOnly = saveDynamicStateOnly;
+    }
+
+    /**
+     * Add listener, called on the main thread. Adding the same listener again has no effect.
+     */
     public void addOnClickListener(OnClickListener listener) {
-        if (!mClickListeners.contains(listener))
-            mClickListeners.add(listener);
+        addOnClickListener(listener, null);
+    }
+
+    /**
+     * Add listener, called through executor (e.g. a background executor for listeners doing I/O)
+     * or inline on the main thread when executor is null. Adding the same listener again only
+     * changes its executor.
+     */
+    public void addOnClickListener(OnClickListener listener, Executor executor) {
+        mClickListeners.add(listener, executor);
     }
 
     public void removeOnClickListener(OnClickListener listener) {
         mClickListeners.remove(listener);
     }
 
+    /**
+     * Add listener, called on the main thread. Adding the same listener again has no effect.
+     */
     public void addOnStateChangedListeners(OnStateChangedListener listener) {
-        if (!mOnStateChangedListeners.contains(listener))
-            mOnStateChangedListeners.add(listener);
+        addOnStateChangedListener(listener, null);
+    }
+
+    /**
+     * Add listener, called through executor or inline on the main thread when executor is null,
+     * see {@link #addOnClickListener(OnClickListener, Executor)}. Listeners called through
+     * different executors may see the states in different orders.
+     */
+    public void addOnStateChangedListener(OnStateChangedListener listener, Executor executor) {
+        mOnStateChangedListeners.add(listener, executor);
     }
 
     public void removeOnStateChangedListener(OnStateChangedListener listener) {
         mOnStateChangedListeners.remove(listener);
     }
 
-    private void callStateChangedListener(int newState) {
-        for (OnStateChangedListener listener : mOnStateChangedListeners)
-            listener.onStateChanged(newState);
+    private void callStateChangedListener(final int newState) {
+        ListenerList.Entry<OnStateChangedListener>[] entries = mOnStateChangedListeners.entries();
+        for (int i = 0; i < entries.length; i++) {
+            final OnStateChangedListener listener = entries[i].listener();
+            Executor executor = entries[i].executor();
+            if (executor == null) {
+                listener.onStateChanged(newState);
+            } else {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onStateChanged(newState);
+                    }
+                });
+            }
+        }
     }
 
     @Override
-    public void onClick(View v) {
-        if (!mCancelable && (mCurrState == STATE_INDETERMINATE || mCurrState == STATE_DETERMINATE))
+    public void onClick(final View v) {
+        final int currState = mStateMachine.getState();
+        if (!mDrawable.isCancelable() && (currState == STATE_INDETERMINATE || currState == STATE_DETERMINATE))
             return;
 
-        if (mCurrState == STATE_IDLE) {
-            for (OnClickListener listener : mClickListeners)
-                listener.onIdleButtonClick(v);
-        }
-        else if (mCurrState == STATE_INDETERMINATE || mCurrState == STATE_DETERMINATE) {
-            for (OnClickListener listener : mClickListeners)
-                listener.onCancelButtonClick(v);
-        }
-        else if (mCurrState == STATE_FINISHED) {
-            for (OnClickListener listener : mClickListeners)
-                listener.onFinishButtonClick(v);
+        ListenerList.Entry<OnClickListener>[] entries = mClickListeners.entries();
+        for (int i = 0; i < entries.length; i++) {
+            final OnClickListener listener = entries[i].listener();
+            Executor executor = entries[i].executor();
+            if (executor == null) {
+                callClickListener(listener, currState, v);
+            } else {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        callClickListener(listener, currState, v);
+                    }
+                });
+            }
         }
     }
 
-    private void drawIdleState(Canvas canvas) {
-        if (mIdleBgDrawable != null) {
-            mIdleBgDrawable.setBounds(0, 0, getWidth(), getHeight());
-            mIdleBgDrawable.draw(canvas);
-        } else {
-            mBgRect.set(0, 0, getWidth(), getHeight());
-            mBgPaint.setColor(mIdleBgColor);
-            canvas.drawOval(mBgRect, mBgPaint);
+    private static void callClickListener(OnClickListener listener, int state, View v) {
+        if (state == STATE_IDLE) {
+            listener.onIdleButtonClick(v);
+        }
+        else if (state == STATE_INDETERMINATE || state == STATE_DETERMINATE) {
+            listener.onCancelButtonClick(v);
+        }
+        else if (state == STATE_FINISHED) {
+            listener.onFinishButtonClick(v);
         }
+    }
 
-        drawDrawableInCenter(mIdleIcon, canvas, mIdleIconWidth, mIdleIconHeight);
+    private static Drawable copyOf(Drawable drawable) {
+        Drawable copy = ButtonProgressStyle.newCopy(drawable);
+        return copy != null ? copy : drawable;
     }
 
-    private void drawFinishState(Canvas canvas) {
-        if (mFinishBgDrawable != null) {
-            mFinishBgDrawable.setBounds(0, 0, getWidth(), getHeight());
-            mFinishBgDrawable.draw(canvas);
-        } else {
-            mBgRect.set(0, 0, getWidth(), getHeight());
-            mBgPaint.setColor(mFinishBgColor);
-            canvas.drawOval(mBgRect, mBgPaint);
-        }
+    @Override
+    protected boolean verifyDrawable(Drawable who) {
+        return who == mDrawable || super.verifyDrawable(who);
+    }
 
-        drawDrawableInCenter(mFinishIcon, canvas, mFinishIconWidth, mFinishIconHeight);
+    @Override
+    protected void onDraw(Canvas canvas) {
+        mDrawable.draw(canvas);
     }
 
-    private void drawIndeterminateState(Canvas canvas) {
-        if (mIndeterminateBgDrawable != null) {
-            mIndeterminateBgDrawable.setBounds(0, 0, getWidth(), getHeight());
-            mIndeterminateBgDrawable.draw(canvas);
-        } else {
-            mBgRect.set(0, 0, getWidth(), getHeight());
-            mBgPaint.setColor(mIndeterminateBgColor);
-            canvas.drawOval(mBgRect, mBgPaint);
-        }
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        mMeasuredIntrinsicWidth = mDrawable.getIntrinsicWidth();
+        mMeasuredIntrinsicHeight = mDrawable.getIntrinsicHeight();
+        // padding is not applied to the drawing, so it is not measured either
+        int width = Math.max(mMeasuredIntrinsicWidth, getSuggestedMinimumWidth());
+        int height = Math.max(mMeasuredIntrinsicHeight, getSuggestedMinimumHeight());
+        setMeasuredDimension(resolveSizeAndState(width, widthMeasureSpec, 0),
+                resolveSizeAndState(height, heightMeasureSpec, 0));
+    }
 
-        if (mCancelable) {
-            drawDrawableInCenter(mCancelIcon, canvas, mCancelIconWidth, mCancelIconHeight);
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        mDrawable.setBounds(0, 0, w, h);
+    }
+
+    /**
+     * Called after a style change, the drawable already updated its geometry for the current
+     * bounds. Layout is only needed when a wrap content size would change.
+     */
+    private void requestLayoutIfSizeChanged() {
+        if (mDrawable.getIntrinsicWidth() != mMeasuredIntrinsicWidth
+                || mDrawable.getIntrinsicHeight() != mMeasuredIntrinsicHeight) {
+            requestLayout();
         }
-
-        setProgressRectBounds();
-        mProgressPaint.setColor(mProgressIndeterminateColor);
-        canvas.drawArc(mProgressRect, mCurrIndeterminateBarPos, mProgressIndeterminateSweepAngle, false, mProgressPaint);
     }
 
-    private void drawDeterminateState(Canvas canvas) {
-        if (mDeterminateBgDrawable != null) {
-            mDeterminateBgDrawable.setBounds(0, 0, getWidth(), getHeight());
-            mDeterminateBgDrawable.draw(canvas);
-        } else {
-            mBgRect.set(0, 0, getWidth(), getHeight());
-            mBgPaint.setColor(mDeterminateBgColor);
-            canvas.drawOval(mBgRect, mBgPaint);
-        }
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        mAttachedToWindow = true;
+        updateIndeterminateAnimator();
+    }
 
-        if (mCancelable) {
-            drawDrawableInCenter(mCancelIcon, canvas, mCancelIconWidth, mCancelIconHeight);
-        }
+    @Override
+    protected void onDetachedFromWindow() {
+        mAttachedToWindow = false;
+        updateIndeterminateAnimator();
+        mDrawable.releaseStaticLayer();
+        super.onDetachedFromWindow();
+    }
 
-        setProgressRectBounds();
-        mProgressPaint.setColor(mProgressDeterminateColor);
-        canvas.drawArc(mProgressRect, BASE_START_ANGLE, getDegrees(), false, mProgressPaint);
+    @Override
+    protected void onVisibilityChanged(View changedView, int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+        updateIndeterminateAnimator();
     }
 
     @Override
-    protected void onDraw(Canvas canvas) {
-        if (mCurrState == STATE_IDLE) {
-            drawIdleState(canvas);
-        }
-        else if (mCurrState == STATE_INDETERMINATE) {
-            drawIndeterminateState(canvas);
-        }
-        else if (mCurrState == STATE_DETERMINATE) {
-            drawDeterminateState(canvas);
-        }
-        else if (mCurrState == STATE_FINISHED) {
-            drawFinishState(canvas);
-        }
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        updateIndeterminateAnimator();
     }
 
     @Override
     protected Parcelable onSaveInstanceState() {
-        final Bundle bundle = new Bundle();
-        bundle.putParcelable(INSTANCE_STATE, super.onSaveInstanceState());
-        bundle.putInt(INSTANCE_MAX_PROGRESS, getMaxProgress());
-        bundle.putInt(INSTANCE_CURRENT_PROGRESS, getCurrentProgress());
-        bundle.putInt(INSTANCE_CURRENT_STATE, getCurrState());
-        bundle.putBoolean(INSTANCE_CANCELABLE, isCancelable());
-        bundle.putInt(INSTANCE_IDLE_WIDTH, getIdleIconWidth());
-        bundle.putInt(INSTANCE_IDLE_HEIGHT, getIdleIconHeight());
-        bundle.putInt(INSTANCE_CANCEL_WIDTH, getCancelIconWidth());
-        bundle.putInt(INSTANCE_CANCEL_HEIGHT, getCancelIconHeight());
-        bundle.putInt(INSTANCE_FINISH_WIDTH, getFinishIconWidth());
-        bundle.putInt(INSTANCE_FINISH_HEIGHT, getFinishIconHeight());
-        bundle.putInt(INSTANCE_IDLE_BG_COLOR, getIdleBgColor());
-        bundle.putInt(INSTANCE_FINISH_BG_COLOR, getFinishBgColor());
-        bundle.putInt(INSTANCE_INDETERMINATE_BG_COLOR, getIndeterminateBgColor());
-        bundle.putInt(INSTANCE_DETERMINATE_BG_COLOR, getDeterminateBgColor());
-        bundle.putInt(INSTANCE_PROGRESS_DETERMINATE_COLOR, getProgressDeterminateColor());
-        bundle.putInt(INSTANCE_PROGRESS_INDETERMINATE_COLOR, getProgressIndeterminateColor());
-        bundle.putInt(INSTANCE_PROGRESS_MARGIN, getProgressMargin());
-        return bundle;
+        SavedState ss = new SavedState(super.onSaveInstanceState());
+        long snapshot = mStateMachine.snapshot();
+        ss.mState = ProgressStateMachine.stateOf(snapshot);
+        ss.mProgress = ProgressStateMachine.progressOf(snapshot);
+        ss.mMaxProgress = ProgressStateMachine.maxProgressOf(snapshot);
+        ss.mStyleSaved = !mSaveDynamicStateOnly;
+        if (ss.mStyleSaved) {
+            ss.mCancelable = mDrawable.isCancelable();
+            ss.mIdleIconWidth = mDrawable.getIdleIconWidth();
+            ss.mIdleIconHeight = mDrawable.getIdleIconHeight();
+            ss.mCancelIconWidth = mDrawable.getCancelIconWidth();
+            ss.mCancelIconHeight = mDrawable.getCancelIconHeight();
+            ss.mFinishIconWidth = mDrawable.getFinishIconWidth();
+            ss.mFinishIconHeight = mDrawable.getFinishIconHeight();
+            ss.mIdleBgColor = mDrawable.getIdleBgColor();
+            ss.mFinishBgColor = mDrawable.getFinishBgColor();
+            ss.mIndeterminateBgColor = mDrawable.getIndeterminateBgColor();
+            ss.mDeterminateBgColor = mDrawable.getDeterminateBgColor();
+            ss.mProgressDeterminateColor = mDrawable.getProgressDeterminateColor();
+            ss.mProgressIndeterminateColor = mDrawable.getProgressIndeterminateColor();
+            ss.mProgressMargin = mDrawable.getProgressMargin();
+            ss.mProgressIndeterminateSweepAngle = mDrawable.getProgressIndeterminateSweepAngle();
+            ss.mProgressWidth = mDrawable.getProgressWidth();
+        }
+        return ss;
     }
 
     @Override
     protected void onRestoreInstanceState(Parcelable state) {
-        if (state instanceof Bundle) {
-            Bundle bundle = (Bundle) state;
-            mMaxProgress = bundle.getInt(INSTANCE_MAX_PROGRESS);
-            mCurrProgress = bundle.getInt(INSTANCE_CURRENT_PROGRESS);
-            mCurrState = bundle.getInt(INSTANCE_CURRENT_STATE);
-            mCancelable = bundle.getBoolean(INSTANCE_CANCELABLE);
-            mIdleIconWidth = bundle.getInt(INSTANCE_IDLE_WIDTH);
-            mIdleIconHeight = bundle.getInt(INSTANCE_IDLE_HEIGHT);
-            mCancelIconWidth = bundle.getInt(INSTANCE_CANCEL_WIDTH);
-            mCancelIconHeight = bundle.getInt(INSTANCE_CANCEL_HEIGHT);
-            mFinishIconWidth = bundle.getInt(INSTANCE_FINISH_WIDTH);
-            mFinishIconHeight = bundle.getInt(INSTANCE_FINISH_HEIGHT);
-            mIdleBgColor = bundle.getInt(INSTANCE_IDLE_BG_COLOR);
-            mFinishBgColor = bundle.getInt(INSTANCE_FINISH_BG_COLOR);
-            mIndeterminateBgColor = bundle.getInt(INSTANCE_INDETERMINATE_BG_COLOR);
-            mDeterminateBgColor = bundle.getInt(INSTANCE_DETERMINATE_BG_COLOR);
-            mProgressDeterminateColor = bundle.getInt(INSTANCE_PROGRESS_DETERMINATE_COLOR);
-            mProgressIndeterminateColor = bundle.getInt(INSTANCE_PROGRESS_INDETERMINATE_COLOR);
-            mProgressMargin = bundle.getInt(INSTANCE_PROGRESS_MARGIN);
-            super.onRestoreInstanceState(bundle.getParcelable(INSTANCE_STATE));
-
-            if (mCurrState == STATE_INDETERMINATE) mIndeterminateAnimator.start();
-
+        if (!(state instanceof SavedState)) {
+            super.onRestoreInstanceState(state);
             return;
         }
-        super.onRestoreInstanceState(state);
-    }
 
-    private void setProgressRectBounds() {
-        float halfStroke = mProgressPaint.getStrokeWidth() / 2.0f;
-        float totalMargin = mProgressMargin + halfStroke;
-        mProgressRect.set(totalMargin, totalMargin, getWidth() - totalMargin, getHeight() - totalMargin);
+        SavedState ss = (SavedState) state;
+        super.onRestoreInstanceState(ss.getSuperState());
+
+        // unchanged buttons keep sharing their style
+        if (ss.mStyleSaved && !ss.matches(mDrawable.getStyle())) {
+            mDrawable.setStyle(mDrawable.getStyle().buildUpon()
+                    .setCancelable(ss.mCancelable)
+                    .setIdleIconWidth(ss.mIdleIconWidth)
+                    .setIdleIconHeight(ss.mIdleIconHeight)
+                    .setCancelIconWidth(ss.mCancelIconWidth)
+                    .setCancelIconHeight(ss.mCancelIconHeight)
+                    .setFinishIconWidth(ss.mFinishIconWidth)
+                    .setFinishIconHeight(ss.mFinishIconHeight)
+                    .setIdleBgColor(ss.mIdleBgColor)
+                    .setFinishBgColor(ss.mFinishBgColor)
+                    .setIndeterminateBgColor(ss.mIndeterminateBgColor)
+                    .setDeterminateBgColor(ss.mDeterminateBgColor)
+                    .setProgressDeterminateColor(ss.mProgressDeterminateColor)
+                    .setProgressIndeterminateColor(ss.mProgressIndeterminateColor)
+                    .setProgressMargin(ss.mProgressMargin)
+                    .setProgressIndeterminateSweepAngle(ss.mProgressIndeterminateSweepAngle)
+                    .setProgressWidth(ss.mProgressWidth)
+                    .build());
+            requestLayoutIfSizeChanged();
+        }
+        restoreState(ss.mState, ss.mProgress, ss.mMaxProgress);
+    }
+
+    /**
+     * Show the drawable, and so let its spinner register to the shared {@link FrameClock}, only
+     * while it can actually be seen, that is the view is attached to a window, and both the view
+     * (with its ancestors) and the window are visible. Otherwise no frame is scheduled for this
+     * button, the spinner angle comes from the frame time so it resumes in phase with the other
+     * spinners.
+     */
+    private void updateIndeterminateAnimator() {
+        // mDrawable is still null when called during the super constructor
+        if (mDrawable == null) return;
+
+        boolean visible = mAttachedToWindow
+                && getWindowVisibility() == VISIBLE
+                && isShown();
+        mDrawable.setVisible(visible, false);
+    }
+
+    /**
+     * Show the given state without notifying the state listeners, used when a recycled button is
+     * bound to another item. Values published before are dropped so they can not overwrite it.
+     *
+     * @return sequence of the reset of the state machine
+     */
+    long restoreState(int state, long packedProgress) {
+        return restoreState(state, (int) packedProgress, (int) (packedProgress >>> 32));
+    }
+
+    /**
+     * {@link #publishState(int)} from a registry, dropped when this button was bound again since
+     * the reset numbered resetSequence
+     */
+    void publishRegistryState(int state, long resetSequence) {
+        mStateMachine.transitionTo(state, resetSequence);
+    }
+
+    /**
+     * {@link #publishProgress(long, long)} from a registry, see
+     * {@link #publishRegistryState(int, long)}. A bind racing with the check only shows the progress
+     * until the next update of the bound id.
+     */
+    void publishRegistryProgress(long packedProgress, long resetSequence) {
+        if (mStateMachine.getResetSequence() == resetSequence) publishPackedProgress(packedProgress);
+    }
+
+    private long restoreState(int state, int progress, int maxProgress) {
+        long sequence = mStateMachine.reset(state, progress, maxProgress);
+        mPendingStates.headMap(sequence, true).clear();
+        mNextStateSequence = sequence + 1;
+
+        mDrawable.setState(state);
+        mDrawable.setMaxProgress(maxProgress);
+        mDrawable.showProgress(mStateMachine.getProgress());
+        mDrawable.jumpToCurrentState();
+        return sequence;
+    }
+
+    /**
+     * Run action on the next frame, or right away when not attached and so not drawn. Main thread
+     * only.
+     */
+    void runOnNextFrame(Runnable action) {
+        if (mAttachedToWindow && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            postOnAnimation(action);
+        } else {
+            action.run();
+        }
     }
 
-    private void initIndeterminateAnimator() {
-        mIndeterminateAnimator = ValueAnimator.ofInt(0, 360);
-        mIndeterminateAnimator.setInterpolator(new LinearInterpolator());
-        mIndeterminateAnimator.setDuration(1000);
-        mIndeterminateAnimator.setRepeatCount(ValueAnimator.INFINITE);
-        mIndeterminateAnimator.setRepeatMode(ValueAnimator.RESTART);
-        mIndeterminateAnimator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
-            @Override
-            public void onAnimationUpdate(ValueAnimator animation) {
-                int value = (int) animation.getAnimatedValue();
-                mCurrIndeterminateBarPos = value - BASE_START_ANGLE;
-                invalidate();
-            }
-        });
+    boolean isIndeterminateAnimationRunning() {
+        return mDrawable.isSpinnerRunning();
     }
 
-    private float getDegrees() {
-        return ((float)mCurrProgress / (float)mMaxProgress) * 360;
+    /**
+     * Follow a change of the state machine, right away on the main thread, on the next frame
+     * otherwise
+     */
+    private void onStateMachineChanged() {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            syncWithStateMachine();
+        } else {
+            schedulePublished();
+        }
     }
 
-    private void drawDrawableInCenter(Drawable drawable, Canvas canvas, int width, int height) {
-        int left = (getWidth() / 2) - (width / 2);
-        int top = (getHeight() / 2) - (height / 2);
-        drawable.setBounds(left, top, left + width, top + height);
-        drawable.draw(canvas);
+    private void schedulePublished() {
+        if (!mPublishScheduled.compareAndSet(false, true)) return;
+        sMainHandler.post(mPostPublished);
+    }
+
+    /**
+     * Apply the published values on the next frame, or right away when detached: a detached view
+     * keeps what it posts until attached, which may never happen (e.g. a recycled row)
+     */
+    private void postPublished() {
+        runOnNextFrame(mApplyPublished);
+    }
+
+    /**
+     * Bring the drawable to the state machine, going through the pending states (and notifying
+     * the listeners) in transition order, then showing the latest progress. A transition whose
+     * state is not queued yet stops the pass, its observer syncs again once it is. Main thread
+     * only.
+     */
+    private void syncWithStateMachine() {
+        Map.Entry<Long, Integer> pending;
+        while ((pending = mPendingStates.firstEntry()) != null && pending.getKey() <= mNextStateSequence) {
+            mPendingStates.remove(pending.getKey());
+            // queued after a restore that superseded it
+            if (pending.getKey() < mNextStateSequence) continue;
+
+            mNextStateSequence++;
+            int state = pending.getValue();
+            mDrawable.setState(state);
+            callStateChangedListener(state);
+        }
+
+        // progress of a state not gone through yet is shown by the sync going through it
+        if (mStateMachine.getSequence() >= mNextStateSequence) return;
+        long snapshot = mStateMachine.snapshot();
+
+        int max = ProgressStateMachine.maxProgressOf(snapshot);
+        if (max != mDrawable.getMaxProgress()) mDrawable.setMaxProgress(max);
+        mDrawable.showProgress(ProgressStateMachine.progressOf(snapshot));
+    }
+
+    static class SavedState extends BaseSavedState {
+
+        private static final int FLAG_STYLE_SAVED = 1;
+        private static final int FLAG_CANCELABLE = 1 << 1;
+
+        int mState;
+        int mProgress;
+        int mMaxProgress;
+        boolean mStyleSaved;
+
+        boolean mCancelable;
+        int mIdleIconWidth;
+        int mIdleIconHeight;
+        int mCancelIconWidth;
+        int mCancelIconHeight;
+        int mFinishIconWidth;
+        int mFinishIconHeight;
+        int mIdleBgColor;
+        int mFinishBgColor;
+        int mIndeterminateBgColor;
+        int mDeterminateBgColor;
+        int mProgressDeterminateColor;
+        int mProgressIndeterminateColor;
+        int mProgressMargin;
+        int mProgressIndeterminateSweepAngle;
+        float mProgressWidth;
+
+        SavedState(Parcelable superState) {
+            super(superState);
+        }
+
+        /**
+         * @return whether the saved style values are the ones of style
+         */
+        boolean matches(ButtonProgressStyle style) {
+            return mCancelable == style.isCancelable()
+                    && mIdleIconWidth == style.getIdleIconWidth()
+                    && mIdleIconHeight == style.getIdleIconHeight()
+                    && mCancelIconWidth == style.getCancelIconWidth()
+                    && mCancelIconHeight == style.getCancelIconHeight()
+                    && mFinishIconWidth == style.getFinishIconWidth()
+                    && mFinishIconHeight == style.getFinishIconHeight()
+                    && mIdleBgColor == style.getIdleBgColor()
+                    && mFinishBgColor == style.getFinishBgColor()
+                    && mIndeterminateBgColor == style.getIndeterminateBgColor()
+                    && mDeterminateBgColor == style.getDeterminateBgColor()
+                    && mProgressDeterminateColor == style.getProgressDeterminateColor()
+                    && mProgressIndeterminateColor == style.getProgressIndeterminateColor()
+                    && mProgressMargin == style.getProgressMargin()
+                    && mProgressIndeterminateSweepAngle == style.getProgressIndeterminateSweepAngle()
+                    && mProgressWidth == style.getProgressWidth();
+        }
+
+        private SavedState(Parcel in) {
+            super(in);
+            int flags = in.readInt();
+            mState = in.readInt();
+            mProgress = in.readInt();
+            mMaxProgress = in.readInt();
+            mStyleSaved = (flags & FLAG_STYLE_SAVED) != 0;
+            if (mStyleSaved) {
+                mCancelable = (flags & FLAG_CANCELABLE) != 0;
+                mIdleIconWidth = in.readInt();
+                mIdleIconHeight = in.readInt();
+                mCancelIconWidth = in.readInt();
+                mCancelIconHeight = in.readInt();
+                mFinishIconWidth = in.readInt();
+                mFinishIconHeight = in.readInt();
+                mIdleBgColor = in.readInt();
+                mFinishBgColor = in.readInt();
+                mIndeterminateBgColor = in.readInt();
+                mDeterminateBgColor = in.readInt();
+                mProgressDeterminateColor = in.readInt();
+                mProgressIndeterminateColor = in.readInt();
+                mProgressMargin = in.readInt();
+                mProgressIndeterminateSweepAngle = in.readInt();
+                mProgressWidth = in.readFloat();
+            }
+        }
+
+        @Override
+        public void writeToParcel(Parcel out, int flags) {
+            super.writeToParcel(out, flags);
+            int stateFlags = 0;
+            if (mStyleSaved) stateFlags |= FLAG_STYLE_SAVED;
+            if (mCancelable) stateFlags |= FLAG_CANCELABLE;
+            out.writeInt(stateFlags);
+            out.writeInt(mState);
+            out.writeInt(mProgress);
+            out.writeInt(mMaxProgress);
+            if (mStyleSaved) {
+                out.writeInt(mIdleIconWidth);
+                out.writeInt(mIdleIconHeight);
+                out.writeInt(mCancelIconWidth);
+                out.writeInt(mCancelIconHeight);
+                out.writeInt(mFinishIconWidth);
+                out.writeInt(mFinishIconHeight);
+                out.writeInt(mIdleBgColor);
+                out.writeInt(mFinishBgColor);
+                out.writeInt(mIndeterminateBgColor);
+                out.writeInt(mDeterminateBgColor);
+                out.writeInt(mProgressDeterminateColor);
+                out.writeInt(mProgressIndeterminateColor);
+                out.writeInt(mProgressMargin);
+                out.writeInt(mProgressIndeterminateSweepAngle);
+                out.writeFloat(mProgressWidth);
+            }
+        }
+
+        public static final Parcelable.Creator<SavedState> CREATOR = new Parcelable.Creator<SavedState>() {
+            @Override
+            public SavedState createFromParcel(Parcel in) {
+                return new SavedState(in);
+            }
+
+            @Override
+            public SavedState[] newArray(int size) {
+                return new SavedState[size];
+            }
+        };
     }
 
     public interface OnClickListener {
@@ -674,3 +1098,4 @@ public class DownloadButtonProgress extends View implements View.OnClickListener
         void onStateChanged(int newState);
     }
 }
+
@@ -0,0 +1,999 @@
+package com.github.abdularis.buttonprogress;
+
+import android.content.res.Resources;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
+import android.view.View;
+
+/**
+ * Drawable rendering the 4 states of a download button without needing a View
+ * 1. Idle state show a button (download button in this case, but not limited)
+ * 2. Indeterminate state show indeterminate circular progress, with optional button in the center
+ * 3. Determinate state show determinate progress, with optional button in the center
+ * 4. Finish state show finish drawable
+ *
+ * It can be put anywhere a drawable goes, e.g. an ImageView or a TextView compound drawable.
+ * Determinate progress can be driven by {@link #setProgress(int)} or by {@link #setLevel(int)}
+ * (0..10000 mapped to 0..max progress). While indeterminate and visible the spinner animates by
+ * itself through its {@link Drawable.Callback}, hosts should forward their visibility with
+ * {@link #setVisible(boolean, boolean)} (ImageView and TextView already do) so hidden drawables do
+ * not schedule any frame. The spinner frame rate can be capped, and it slows down in battery
+ * saver and stands still when animations are turned off in the system settings. On API 25+ the
+ * spinner can be turned by the RenderThread instead, see {@link #setHardwareSpinEnabled(boolean)}.
+ *
+ * Downloads fetched in chunks can show the progress of each chunk as its own arc, see
+ * {@link #setSegments(ProgressSegments)}.
+ *
+ * {@link DownloadButtonProgress} is a View hosting this drawable and adding click handling and
+ * state listeners on top of it.
+ */
+public class DownloadProgressDrawable extends Drawable {
+
+    public static final int STATE_IDLE = ProgressStateMachine.STATE_IDLE;
+    public static final int STATE_INDETERMINATE = ProgressStateMachine.STATE_INDETERMINATE;
+    public static final int STATE_DETERMINATE = ProgressStateMachine.STATE_DETERMINATE;
+    public static final int STATE_FINISHED = ProgressStateMachine.STATE_FINISHED;
+
+    static final int NO_STATE = 0;
+
+    static final int DEF_MAX_PROGRESS = ProgressStateMachine.DEF_MAX_PROGRESS;
+    static final boolean DEF_LAYER_CACHE_ENABLED = false;
+    static final boolean DEF_SMOOTH_PROGRESS_ENABLED = false;
+    static final int DEF_SPINNER_MAX_FRAME_RATE = 0;
+    static final boolean DEF_HARDWARE_SPIN_ENABLED = false;
+
+    private static final int BASE_START_ANGLE = -90;
+    static final long INDETERMINATE_PERIOD = 1000;
+    private static final long LOW_POWER_INDETERMINATE_PERIOD = 2000;
+    private static final int LOW_POWER_FRAME_RATE = 10;
+    private static final int MAX_LEVEL = 10000;
+    private static final float SMOOTH_PROGRESS_TIME_CONSTANT_NANOS = 80000000f;
+
+    private ButtonProgressStyle mStyle;
+
+    private int mCurrState = STATE_IDLE;
+    private int mMaxProgress = DEF_MAX_PROGRESS;
+    private int mCurrProgress = 0;
+
+    private final FrameClock.Client mSpinnerClient = new FrameClock.Client() {
+        @Override
+        public void onFrame(long frameTimeNanos) {
+            if (getCallback() == null) {
+                // host is gone without hiding us first
+                FrameClock.getInstance().unregister(this);
+                return;
+            }
+            ButtonProgressMetrics.recordInvalidate();
+            invalidateRing();
+        }
+    };
+    private final MotionPolicy.Listener mMotionListener = new MotionPolicy.Listener() {
+        @Override
+        public void onMotionModeChanged(int mode) {
+            updateSpinner();
+            invalidateRing();
+        }
+    };
+    private final FrameClock.Client mTweenClient = new FrameClock.Client() {
+        @Override
+        public void onFrame(long frameTimeNanos) {
+            if (getCallback() == null) {
+                FrameClock.getInstance().unregister(this);
+                return;
+            }
+            advanceDisplayedDegrees(frameTimeNanos);
+        }
+    };
+
+    // geometry derived from the bounds and the style, updated when either changes and not per frame
+    private final RectF mBgRect = new RectF();
+    private final RectF mProgressRect = new RectF();
+    private final Rect mIdleIconBounds = new Rect();
+    private final Rect mCancelIconBounds = new Rect();
+    private final Rect mFinishIconBounds = new Rect();
+
+    private int mAlpha = 255;
+    private ColorFilter mColorFilter;
+    private Paint mLayerPaint;
+
+    private boolean mLayerCacheEnabled = DEF_LAYER_CACHE_ENABLED;
+    private StaticLayer mStaticLayer;
+    private int mStaticLayerState = NO_STATE;
+
+    private final Rect mRingDirtyBounds = new Rect();
+    private boolean mInvalidatingRing;
+    private float mDrawnDegrees;
+    private boolean mSmoothProgressEnabled = DEF_SMOOTH_PROGRESS_ENABLED;
+    private float mDisplayedDegrees;
+    private long mLastTweenFrameNanos;
+    private float mMinVisibleDegrees;
+    private int mInvalidateCount;
+    private int mSkippedInvalidateCount;
+    private int mSpinnerMaxFrameRate = DEF_SPINNER_MAX_FRAME_RATE;
+    private boolean mHardwareSpinEnabled = DEF_HARDWARE_SPIN_ENABLED;
+    private SpinnerVector mSpinnerVector;
+    private boolean mRenderThreadSpin;
+
+    private ProgressSegments mSegments;
+    private Path mSegmentsPath;
+
+    public DownloadProgressDrawable(Resources res) {
+        this(StyleCache.getInstance().getDefaultStyle(res));
+    }
+
+    public DownloadProgressDrawable(ButtonProgressStyle style) {
+        mStyle = style;
+        updateGeometry();
+    }
+
+    public ButtonProgressStyle getStyle() {
+        return mStyle;
+    }
+
+    public int getState() {
+        return mCurrState;
+    }
+
+    public int getMaxProgress() {
+        return mMaxProgress;
+    }
+
+    public int getProgress() {
+        return mCurrProgress;
+    }
+
+    public Drawable getIdleIcon() {
+        return mStyle.getIdleIcon();
+    }
+
+    public Drawable getCancelIcon() {
+        return mStyle.getCancelIcon();
+    }
+
+    public Drawable getFinishIcon() {
+        return mStyle.getFinishIcon();
+    }
+
+    public boolean isCancelable() {
+        return mStyle.isCancelable();
+    }
+
+    public int getIdleIconWidth() {
+        return mStyle.getIdleIconWidth();
+    }
+
+    public int getIdleIconHeight() {
+        return mStyle.getIdleIconHeight();
+    }
+
+    public int getCancelIconWidth() {
+        return mStyle.getCancelIconWidth();
+    }
+
+    public int getCancelIconHeight() {
+        return mStyle.getCancelIconHeight();
+    }
+
+    public int getFinishIconWidth() {
+        return mStyle.getFinishIconWidth();
+    }
+
+    public int getFinishIconHeight() {
+        return mStyle.getFinishIconHeight();
+    }
+
+    public int getIdleBgColor() {
+        return mStyle.getIdleBgColor();
+    }
+
+    public int getFinishBgColor() {
+        return mStyle.getFinishBgColor();
+    }
+
+    public int getIndeterminateBgColor() {
+        return mStyle.getIndeterminateBgColor();
+    }
+
+    public int getDeterminateBgColor() {
+        return mStyle.getDeterminateBgColor();
+    }
+
+    public Drawable getIdleBgDrawable() {
+        return mStyle.getIdleBgDrawable();
+    }
+
+    public Drawable getFinishBgDrawable() {
+        return mStyle.getFinishBgDrawable();
+    }
+
+    public Drawable getIndeterminateBgDrawable() {
+        return mStyle.getIndeterminateBgDrawable();
+    }
+
+    public Drawable getDeterminateBgDrawable() {
+        return mStyle.getDeterminateBgDrawable();
+    }
+
+    public int getProgressDeterminateColor() {
+        return mStyle.getProgressDeterminateColor();
+    }
+
+    public int getProgressIndeterminateColor() {
+        return mStyle.getProgressIndeterminateColor();
+    }
+
+    public int getProgressMargin() {
+        return mStyle.getProgressMargin();
+    }
+
+    public float getProgressWidth() {
+        return mStyle.getProgressWidth();
+    }
+
+    public int getProgressIndeterminateSweepAngle() {
+        return mStyle.getProgressIndeterminateSweepAngle();
+    }
+
+    public boolean isLayerCacheEnabled() {
+        return mLayerCacheEnabled;
+    }
+
+    public boolean isFastStrokeEnabled() {
+        return mStyle.isFastStrokeEnabled();
+    }
+
+    public boolean isSmoothProgressEnabled() {
+        return mSmoothProgressEnabled;
+    }
+
+    public int getSpinnerMaxFrameRate() {
+        return mSpinnerMaxFrameRate;
+    }
+
+    public boolean isHardwareSpinEnabled() {
+        return mHardwareSpinEnabled;
+    }
+
+    public ProgressSegments getSegments() {
+        return mSegments;
+    }
+
+    /**
+     * @return number of redraws requested by progress changes
+     */
+    public int getInvalidateCount() {
+        return mInvalidateCount;
+    }
+
+    /**
+     * @return number of progress changes that did not request a redraw because the arc would not
+     * visibly change
+     */
+    public int getSkippedInvalidateCount() {
+        return mSkippedInvalidateCount;
+    }
+
+    /**
+     * Change the rendered state, entering {@link #STATE_DETERMINATE} or {@link #STATE_FINISHED}
+     * resets the progress to 0.
+     */
+    public void setState(int state) {
+        if (state < STATE_IDLE || state > STATE_FINISHED)
+            throw new IllegalArgumentException("Unknown state: " + state);
+
+        if (state == STATE_DETERMINATE || state == STATE_FINISHED) {
+            mCurrProgress = 0;
+        }
+        mCurrState = state;
+        updateSpinner();
+        jumpToCurrentState();
+        invalidateSelf();
+    }
+
+    /**
+     * Progress is only taken in {@link #STATE_DETERMINATE}, and capped to the max progress
+     */
+    public void setProgress(int progress) {
+        ButtonProgressMetrics.recordProgressReceived();
+        showProgress(progress);
+    }
+
+    /**
+     * {@link #setProgress(int)} without counting a received progress, for hosts counting it
+     * themselves
+     */
+    void showProgress(int progress) {
+        if (mCurrState != STATE_DETERMINATE) return;
+        mCurrProgress = Math.min(progress, mMaxProgress);
+        invalidateProgress();
+    }
+
+    public void setMaxProgress(int maxProgress) {
+        mMaxProgress = maxProgress;
+        jumpToCurrentState();
+        invalidateSelf();
+    }
+
+    /**
+     * Use the given style, a style can be shared by many drawables. The setters of the single
+     * style values below replace the style of this drawable by a modified copy.
+     */
+    public void setStyle(ButtonProgressStyle style) {
+        mStyle = style;
+        mStaticLayerState = NO_STATE;
+        updateGeometry();
+        invalidateSelf();
+    }
+
+    public void setIdleIcon(Drawable idleIcon) {
+        setStyle(mStyle.buildUpon().setIdleIcon(idleIcon).build());
+    }
+
+    public void setCancelIcon(Drawable cancelIcon) {
+        setStyle(mStyle.buildUpon().setCancelIcon(cancelIcon).build());
+    }
+
+    public void setFinishIcon(Drawable finishIcon) {
+        setStyle(mStyle.buildUpon().setFinishIcon(finishIcon).build());
+    }
+
+    public void setCancelable(boolean cancelable) {
+        setStyle(mStyle.buildUpon().setCancelable(cancelable).build());
+    }
+
+    public void setIdleIconWidth(int idleIconWidth) {
+        setStyle(mStyle.buildUpon().setIdleIconWidth(idleIconWidth).build());
+    }
+
+    public void setIdleIconHeight(int idleIconHeight) {
+        setStyle(mStyle.buildUpon().setIdleIconHeight(idleIconHeight).build());
+    }
+
+    public void setCancelIconWidth(int cancelIconWidth) {
+        setStyle(mStyle.buildUpon().setCancelIconWidth(cancelIconWidth).build());
+    }
+
+    public void setCancelIconHeight(int cancelIconHeight) {
+        setStyle(mStyle.buildUpon().setCancelIconHeight(cancelIconHeight).build());
+    }
+
+    public void setFinishIconWidth(int finishIconWidth) {
+        setStyle(mStyle.buildUpon().setFinishIconWidth(finishIconWidth).build());
+    }
+
+    public void setFinishIconHeight(int finishIconHeight) {
+        setStyle(mStyle.buildUpon().setFinishIconHeight(finishIconHeight).build());
+    }
+
+    public void setIdleBgColor(int idleBgColor) {
+        setStyle(mStyle.buildUpon().setIdleBgColor(idleBgColor).build());
+    }
+
+    public void setFinishBgColor(int finishBgColor) {
+        setStyle(mStyle.buildUpon().setFinishBgColor(finishBgColor).build());
+    }
+
+    public void setIndeterminateBgColor(int indeterminateBgColor) {
+        setStyle(mStyle.buildUpon().setIndeterminateBgColor(indeterminateBgColor).build());
+    }
+
+    public void setDeterminateBgColor(int determinateBgColor) {
+        setStyle(mStyle.buildUpon().setDeterminateBgColor(determinateBgColor).build());
+    }
+
+    public void setIdleBgDrawable(Drawable idleBgDrawable) {
+        setStyle(mStyle.buildUpon().setIdleBgDrawable(idleBgDrawable).build());
+    }
+
+    public void setFinishBgDrawable(Drawable finishBgDrawable) {
+        setStyle(mStyle.buildUpon().setFinishBgDrawable(finishBgDrawable).build());
+    }
+
+    public void setIndeterminateBgDrawable(Drawable indeterminateBgDrawable) {
+        setStyle(mStyle.buildUpon().setIndeterminateBgDrawable(indeterminateBgDrawable).build());
+    }
+
+    public void setDeterminateBgDrawable(Drawable determinateBgDrawable) {
+        setStyle(mStyle.buildUpon().setDeterminateBgDrawable(determinateBgDrawable).build());
+    }
+
+    public void setProgressDeterminateColor(int progressDeterminateColor) {
+        setStyle(mStyle.buildUpon().setProgressDeterminateColor(progressDeterminateColor).build());
+    }
+
+    public void setProgressIndeterminateColor(int progressIndeterminateColor) {
+        setStyle(mStyle.buildUpon().setProgressIndeterminateColor(progressIndeterminateColor).build());
+    }
+
+    public void setProgressMargin(int progressMargin) {
+        setStyle(mStyle.buildUpon().setProgressMargin(progressMargin).build());
+    }
+
+    public void setProgressWidth(float progressWidth) {
+        setStyle(mStyle.buildUpon().setProgressWidth(progressWidth).build());
+    }
+
+    public void setProgressIndeterminateSweepAngle(int progressIndeterminateSweepAngle) {
+        setStyle(mStyle.buildUpon().setProgressIndeterminateSweepAngle(progressIndeterminateSweepAngle).build());
+    }
+
+    /**
+     * Keep the static part of the current state (background and center icon) pre rendered, so a
+     * spinning or filling button only draws that layer and the progress arc each frame. The layer
+     * is a bitmap of the size of this drawable (a display list on API 29+ hardware canvas) and is
+     * only re-rendered on state change, size change, or when the style changes.
+     * Animated background drawables are not supported while this is enabled.
+     */
+    public void setLayerCacheEnabled(boolean layerCacheEnabled) {
+        mLayerCacheEnabled = layerCacheEnabled;
+        if (!layerCacheEnabled) releaseStaticLayer();
+        invalidateSelf();
+    }
+
+    /**
+     * Fast stroke (the default) draws the progress arc with round caps only. When disabled the arc
+     * is also drawn through a {@link android.graphics.CornerPathEffect} like older versions of this library did,
+     * which looks the same for a round capped arc but converts the arc to a path on every frame and
+     * may fall back to software rendering on some hardware accelerated pipelines.
+     */
+    public void setFastStrokeEnabled(boolean fastStrokeEnabled) {
+        setStyle(mStyle.buildUpon().setFastStrokeEnabled(fastStrokeEnabled).build());
+    }
+
+    /**
+     * When enabled the drawn arc does not jump to a new progress but chases it, advanced once per
+     * frame by the shared {@link FrameClock} until it reaches the progress. Redraws are then done
+     * at most once per frame however often the progress is set, and frames stop being scheduled
+     * as soon as the arc catches up. Call {@link #jumpToCurrentState()} to skip the animation.
+     */
+    public void setSmoothProgressEnabled(boolean smoothProgressEnabled) {
+        mSmoothProgressEnabled = smoothProgressEnabled;
+        if (!smoothProgressEnabled) jumpToCurrentState();
+    }
+
+    /**
+     * Redraw the indeterminate spinner at most fps times per second (e.g. 30, 20 or 10) instead of
+     * on every frame of the display, 0 for no cap. A capped spinner posts its frame callbacks
+     * delayed by the capped interval, the main thread is not woken up on the vsyncs in between.
+     * In battery saver the spinner is capped to 10fps and turns twice slower whatever this cap,
+     * and it is drawn standing still (without requesting any frame) when the animator duration
+     * scale is 0.
+     */
+    public void setSpinnerMaxFrameRate(int fps) {
+        if (fps < 0) throw new IllegalArgumentException("fps must not be negative: " + fps);
+        mSpinnerMaxFrameRate = fps;
+        updateSpinner();
+    }
+
+    /**
+     * On API 25+ hardware accelerated canvases, draw the indeterminate arc with an
+     * {@link android.graphics.drawable.AnimatedVectorDrawable} whose rotation is animated by the
+     * RenderThread. The spinner then keeps turning while the main thread is busy, and the main
+     * thread schedules no frame and draws nothing while it turns.
+     *
+     * The arc of the vector is compiled in the library: a 90 degrees sweep a fifth of the ring
+     * radius thick. Only a style with that sweep and a progress width within a pixel of that
+     * thickness is spun by the RenderThread, any other style keeps its own arc drawn from the main
+     * thread. The vector has the indeterminate color of the style and turns in phase with the
+     * other spinners, the frame rate cap does not apply to it. In battery saver, on older API
+     * levels and on software canvases the spinner is drawn from the main thread as usual.
+     */
+    public void setHardwareSpinEnabled(boolean hardwareSpinEnabled) {
+        mHardwareSpinEnabled = hardwareSpinEnabled;
+        if (!hardwareSpinEnabled) {
+            mRenderThreadSpin = false;
+            if (mSpinnerVector != null) {
+                mSpinnerVector.stop();
+                mSpinnerVector = null;
+            }
+            updateSpinner();
+        }
+        invalidateRing();
+    }
+
+    /**
+     * Show one arc per segment instead of the progress while determinate, all drawn as a single
+     * path. The segments can be updated from any thread, they are redrawn on the next frame. Null
+     * shows the progress again.
+     */
+    public void setSegments(ProgressSegments segments) {
+        if (mSegments == segments) return;
+        if (mSegments != null) mSegments.setHost(null);
+        mSegments = segments;
+        if (segments != null) {
+            segments.setHost(this);
+            if (mSegmentsPath == null) mSegmentsPath = new Path();
+        }
+        invalidateRing();
+    }
+
+    /**
+     * Draw the current progress right away, ending the smooth progress animation if any
+     */
+    @Override
+    public void jumpToCurrentState() {
+        FrameClock.getInstance().unregister(mTweenClient);
+        if (mDisplayedDegrees != getDegrees()) {
+            mDisplayedDegrees = getDegrees();
+            invalidateRing();
+        }
+    }
+
+    /**
+     * Release the pre rendered static layer if any, it is rebuilt on the next draw
+     */
+    public void releaseStaticLayer() {
+        if (mStaticLayer != null) {
+            mStaticLayer.release();
+            mStaticLayer = null;
+        }
+        mStaticLayerState = NO_STATE;
+    }
+
+    @Override
+    public boolean setVisible(boolean visible, boolean restart) {
+        boolean changed = super.setVisible(visible, restart);
+        updateSpinner();
+        // nothing to chase while hidden, show the latest progress once visible again
+        if (!visible) jumpToCurrentState();
+        return changed;
+    }
+
+    /**
+     * @return whether the indeterminate spinner is currently registered for frames, or turned by
+     * the RenderThread
+     */
+    boolean isSpinnerRunning() {
+        return FrameClock.getInstance().isRegistered(mSpinnerClient)
+                || (mSpinnerVector != null && mSpinnerVector.isRunning());
+    }
+
+    /**
+     * @return whether the smooth progress animation is currently registered for frames
+     */
+    boolean isSmoothProgressRunning() {
+        return FrameClock.getInstance().isRegistered(mTweenClient);
+    }
+
+    @Override
+    protected boolean onLevelChange(int level) {
+        ButtonProgressMetrics.recordProgressReceived();
+        if (mCurrState != STATE_DETERMINATE) return false;
+
+        int progress = (int) ((long) level * mMaxProgress / MAX_LEVEL);
+        if (progress != mCurrProgress) {
+            mCurrProgress = progress;
+            invalidateProgress();
+        }
+        // redraw (if any) already requested by invalidateProgress
+        return false;
+    }
+
+    @Override
+    protected void onBoundsChange(Rect bounds) {
+        updateGeometry();
+    }
+
+    @Override
+    public Rect getDirtyBounds() {
+        return mInvalidatingRing ? mRingDirtyBounds : getBounds();
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+        ButtonProgressStyle style = mStyle;
+        int iconWidth = Math.max(style.getIdleIconWidth(),
+                Math.max(style.getCancelIconWidth(), style.getFinishIconWidth()));
+        return iconWidth + getRingThickness() * 2;
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        ButtonProgressStyle style = mStyle;
+        int iconHeight = Math.max(style.getIdleIconHeight(),
+                Math.max(style.getCancelIconHeight(), style.getFinishIconHeight()));
+        return iconHeight + getRingThickness() * 2;
+    }
+
+    @Override
+    public void setAlpha(int alpha) {
+        mAlpha = alpha;
+        updateLayerPaint();
+        invalidateSelf();
+    }
+
+    @Override
+    public int getAlpha() {
+        return mAlpha;
+    }
+
+    @Override
+    public void setColorFilter(ColorFilter colorFilter) {
+        mColorFilter = colorFilter;
+        updateLayerPaint();
+        invalidateSelf();
+    }
+
+    @Override
+    public int getOpacity() {
+        return PixelFormat.TRANSLUCENT;
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public void draw(Canvas canvas) {
+        Rect bounds = getBounds();
+        if (bounds.isEmpty()) return;
+
+        boolean recordMetrics = ButtonProgressMetrics.isEnabled();
+        long start = recordMetrics ? System.nanoTime() : 0;
+        int saveCount = -1;
+        if (mLayerPaint != null) {
+            // icons share their state with other drawables, alpha and color filter are applied
+            // to the whole drawable through a layer instead of mutating them
+            saveCount = canvas.saveLayer(bounds.left, bounds.top, bounds.right, bounds.bottom,
+                    mLayerPaint, Canvas.ALL_SAVE_FLAG);
+        }
+
+        if (mLayerCacheEnabled) {
+            drawCachedStaticLayer(canvas, bounds);
+        } else {
+            drawStaticLayer(canvas, mCurrState);
+        }
+
+        if (mCurrState == STATE_INDETERMINATE) {
+            drawIndeterminateProgress(canvas);
+        }
+        else if (mCurrState == STATE_DETERMINATE) {
+            drawDeterminateProgress(canvas);
+        }
+
+        if (saveCount >= 0) canvas.restoreToCount(saveCount);
+
+        if (recordMetrics) ButtonProgressMetrics.recordDraw(mCurrState, System.nanoTime() - start);
+    }
+
+    /**
+     * Draw state in its bounds regardless of the state, animations and settings of this drawable:
+     * the determinate arc sweeps degrees and the spinner is turned by spinnerRotation degrees from
+     * the top. Only reads the style and the geometry, so it may be called from any thread on a
+     * drawable without callback, one call at a time. Used by {@link ProgressFrameRenderer}.
+     */
+    void drawFrame(Canvas canvas, int state, float degrees, float spinnerRotation) {
+        if (getBounds().isEmpty()) return;
+
+        drawStaticLayer(canvas, state);
+        if (state == STATE_INDETERMINATE) {
+            drawSpinnerArc(canvas, BASE_START_ANGLE + spinnerRotation);
+        }
+        else if (state == STATE_DETERMINATE) {
+            drawProgressArc(canvas, degrees);
+        }
+    }
+
+    private void drawIdleState(Canvas canvas) {
+        drawBackground(canvas, STATE_IDLE);
+        drawIcon(mStyle.getIdleIcon(), canvas, mIdleIconBounds);
+    }
+
+    private void drawFinishState(Canvas canvas) {
+        drawBackground(canvas, STATE_FINISHED);
+        drawIcon(mStyle.getFinishIcon(), canvas, mFinishIconBounds);
+    }
+
+    private void drawIndeterminateState(Canvas canvas) {
+        drawBackground(canvas, STATE_INDETERMINATE);
+
+        if (mStyle.isCancelable()) {
+            drawIcon(mStyle.getCancelIcon(), canvas, mCancelIconBounds);
+        }
+    }
+
+    private void drawIndeterminateProgress(Canvas canvas) {
+        int mode = MotionPolicy.getInstance().getMode();
+        boolean renderThreadSpin = mHardwareSpinEnabled && mode == MotionPolicy.MODE_FULL
+                && getCallback() instanceof View && SpinnerVector.isSupported(canvas)
+                && SpinnerVector.matches(mProgressRect, mStyle.getProgressIndeterminateSweepAngle(),
+                        mStyle.getProgressWidth());
+        if (renderThreadSpin != mRenderThreadSpin) {
+            // frames come from the RenderThread now, or from the frame clock again
+            mRenderThreadSpin = renderThreadSpin;
+            updateSpinner();
+        }
+        if (renderThreadSpin) {
+            if (mSpinnerVector == null) mSpinnerVector = new SpinnerVector(((View) getCallback()).getResources());
+            float startAngle = FrameClock.getSpinnerAngle(System.nanoTime(), INDETERMINATE_PERIOD) - BASE_START_ANGLE;
+            mSpinnerVector.draw(canvas, mProgressRect, mStyle.getProgressIndeterminateColor(), startAngle);
+            return;
+        }
+
+        float barPos;
+        if (mode == MotionPolicy.MODE_STATIC) {
+            barPos = BASE_START_ANGLE;
+        } else {
+            // position comes straight from the frame time, no boxed animated value on this path
+            long period = mode == MotionPolicy.MODE_LOW_POWER ? LOW_POWER_INDETERMINATE_PERIOD : INDETERMINATE_PERIOD;
+            barPos = FrameClock.getInstance().getSpinnerAngle(period) - BASE_START_ANGLE;
+        }
+        drawSpinnerArc(canvas, barPos);
+    }
+
+    private void drawSpinnerArc(Canvas canvas, float barPos) {
+        canvas.drawArc(mProgressRect, barPos, mStyle.getProgressIndeterminateSweepAngle(), false,
+                mStyle.getProgressIndeterminatePaint());
+    }
+
+    private void drawDeterminateState(Canvas canvas) {
+        drawBackground(canvas, STATE_DETERMINATE);
+
+        if (mStyle.isCancelable()) {
+            drawIcon(mStyle.getCancelIcon(), canvas, mCancelIconBounds);
+        }
+    }
+
+    private void drawDeterminateProgress(Canvas canvas) {
+        if (mSegments != null) {
+            drawSegments(canvas, mSegments);
+            return;
+        }
+
+        float degrees = mSmoothProgressEnabled ? mDisplayedDegrees : getDegrees();
+        if (degrees != mDrawnDegrees) ButtonProgressMetrics.recordProgressRendered();
+        mDrawnDegrees = degrees;
+        drawProgressArc(canvas, degrees);
+    }
+
+    private void drawProgressArc(Canvas canvas, float degrees) {
+        canvas.drawArc(mProgressRect, BASE_START_ANGLE, degrees, false, mStyle.getProgressDeterminatePaint());
+    }
+
+    private void drawSegments(Canvas canvas, ProgressSegments segments) {
+        segments.onDraw();
+        int count = segments.getCount();
+        float slice = 360f / count;
+        Path path = mSegmentsPath;
+        path.rewind();
+        for (int i = 0; i < count; i++) {
+            int level = segments.getLevel(i);
+            if (level > 0) {
+                path.addArc(mProgressRect, BASE_START_ANGLE + i * slice, slice * level / ProgressSegments.MAX_LEVEL);
+            }
+        }
+        canvas.drawPath(path, mStyle.getProgressDeterminatePaint());
+    }
+
+    private void drawBackground(Canvas canvas, int state) {
+        Drawable bgDrawable = mStyle.getBgDrawable(state);
+        if (bgDrawable != null) {
+            // shared with the other users of the style, see drawIcon
+            bgDrawable.setBounds(getBounds());
+            bgDrawable.draw(canvas);
+        } else {
+            canvas.drawOval(mBgRect, mStyle.getBgPaint(state));
+        }
+    }
+
+    private void drawStaticLayer(Canvas canvas, int state) {
+        if (state == STATE_IDLE) {
+            drawIdleState(canvas);
+        }
+        else if (state == STATE_INDETERMINATE) {
+            drawIndeterminateState(canvas);
+        }
+        else if (state == STATE_DETERMINATE) {
+            drawDeterminateState(canvas);
+        }
+        else if (state == STATE_FINISHED) {
+            drawFinishState(canvas);
+        }
+    }
+
+    private void drawCachedStaticLayer(Canvas canvas, Rect bounds) {
+        if (mStaticLayer != null && !mStaticLayer.isCompatible(canvas)) {
+            releaseStaticLayer();
+        }
+        if (mStaticLayer == null) {
+            mStaticLayer = StaticLayer.create(canvas);
+        }
+        if (mStaticLayerState != mCurrState || !mStaticLayer.hasBounds(bounds)) {
+            drawStaticLayer(mStaticLayer.beginRecording(bounds), mCurrState);
+            mStaticLayer.endRecording();
+            mStaticLayerState = mCurrState;
+        }
+        mStaticLayer.draw(canvas);
+    }
+
+    private void updateSpinner() {
+        Callback callback = getCallback();
+        boolean shouldRun = mCurrState == STATE_INDETERMINATE && isVisible() && callback != null;
+        MotionPolicy policy = MotionPolicy.getInstance();
+        if (shouldRun) {
+            // hosts are views in practice, their context gives access to the system settings
+            if (callback instanceof View) policy.init(((View) callback).getContext());
+            policy.addListener(mMotionListener);
+        } else {
+            policy.removeListener(mMotionListener);
+        }
+
+        boolean renderThreadSpin = mRenderThreadSpin && policy.getMode() == MotionPolicy.MODE_FULL;
+        if (mSpinnerVector != null && !(shouldRun && renderThreadSpin)) {
+            mSpinnerVector.stop();
+        }
+
+        if (shouldRun && policy.getMode() != MotionPolicy.MODE_STATIC && !renderThreadSpin) {
+            // capped spinners are only woken up at their own rate, not on every vsync
+            int frameRate = getSpinnerFrameRate();
+            FrameClock.getInstance().register(mSpinnerClient, frameRate > 0 ? 1000000000L / frameRate : 0);
+        } else {
+            FrameClock.getInstance().unregister(mSpinnerClient);
+        }
+    }
+
+    /**
+     * @return max spinner redraws per second, 0 for every frame
+     */
+    private int getSpinnerFrameRate() {
+        if (MotionPolicy.getInstance().getMode() == MotionPolicy.MODE_LOW_POWER) {
+            return mSpinnerMaxFrameRate > 0 ? Math.min(mSpinnerMaxFrameRate, LOW_POWER_FRAME_RATE) : LOW_POWER_FRAME_RATE;
+        }
+        return mSpinnerMaxFrameRate;
+    }
+
+    private void updateLayerPaint() {
+        if (mAlpha == 255 && mColorFilter == null) {
+            mLayerPaint = null;
+            return;
+        }
+        if (mLayerPaint == null) mLayerPaint = new Paint();
+        mLayerPaint.setAlpha(mAlpha);
+        mLayerPaint.setColorFilter(mColorFilter);
+    }
+
+    /**
+     * Segments changed since they were last drawn, called on the main thread
+     */
+    void onSegmentsChanged() {
+        if (mCurrState != STATE_DETERMINATE) return;
+        mInvalidateCount++;
+        ButtonProgressMetrics.recordInvalidate();
+        invalidateRing();
+    }
+
+    /**
+     * Request a redraw of the progress ring only, and only when the new sweep differs from the
+     * drawn one by at least one pixel along the ring. Empty and full arcs are always drawn so the
+     * start and the end of a download are never missed.
+     */
+    private void invalidateProgress() {
+        if (mSmoothProgressEnabled) {
+            startTween();
+            return;
+        }
+
+        mDisplayedDegrees = getDegrees();
+        float degrees = mDisplayedDegrees;
+        float delta = Math.abs(degrees - mDrawnDegrees);
+        boolean boundary = degrees <= 0 || degrees >= 360;
+        if (delta == 0 || (delta < mMinVisibleDegrees && !boundary)) {
+            mSkippedInvalidateCount++;
+            ButtonProgressMetrics.recordSkippedInvalidate();
+            return;
+        }
+
+        mInvalidateCount++;
+        ButtonProgressMetrics.recordInvalidate();
+        invalidateRing();
+    }
+
+    private void startTween() {
+        if (mDisplayedDegrees == getDegrees()) return;
+
+        if (!isVisible() || getCallback() == null) {
+            jumpToCurrentState();
+            return;
+        }
+        FrameClock clock = FrameClock.getInstance();
+        if (!clock.isRegistered(mTweenClient)) {
+            mLastTweenFrameNanos = System.nanoTime();
+            clock.register(mTweenClient);
+        }
+    }
+
+    /**
+     * Move the drawn sweep toward the progress, exponentially so the speed only depends on the
+     * time elapsed and not on the frame rate nor on how often the progress is set
+     */
+    private void advanceDisplayedDegrees(long frameTimeNanos) {
+        long elapsed = Math.max(0, frameTimeNanos - mLastTweenFrameNanos);
+        mLastTweenFrameNanos = frameTimeNanos;
+
+        float target = getDegrees();
+        float remaining = target - mDisplayedDegrees;
+        float step = remaining * (1 - (float) Math.exp(-elapsed / SMOOTH_PROGRESS_TIME_CONSTANT_NANOS));
+        // snap once the rest would not move the arc end by a pixel
+        if (Math.abs(remaining - step) < Math.max(mMinVisibleDegrees, 0.01f)) {
+            mDisplayedDegrees = target;
+            FrameClock.getInstance().unregister(mTweenClient);
+        } else {
+            mDisplayedDegrees += step;
+        }
+
+        mInvalidateCount++;
+        ButtonProgressMetrics.recordInvalidate();
+        invalidateRing();
+    }
+
+    /**
+     * Invalidate with {@link #getDirtyBounds()} reporting only the progress ring
+     */
+    private void invalidateRing() {
+        // half of the stroke lies outside of the ring rect, plus a pixel for anti aliasing
+        int outset = (int) Math.ceil(mStyle.getProgressWidth() / 2.0f) + 1;
+        mRingDirtyBounds.set((int) mProgressRect.left - outset, (int) mProgressRect.top - outset,
+                (int) Math.ceil(mProgressRect.right) + outset, (int) Math.ceil(mProgressRect.bottom) + outset);
+
+        mInvalidatingRing = true;
+        invalidateSelf();
+        mInvalidatingRing = false;
+    }
+
+    /**
+     * Compute the rects drawn every frame, called when the bounds or the style change
+     */
+    private void updateGeometry() {
+        Rect bounds = getBounds();
+        ButtonProgressStyle style = mStyle;
+        mBgRect.set(bounds);
+
+        float halfStroke = style.getProgressWidth() / 2.0f;
+        float totalMargin = style.getProgressMargin() + halfStroke;
+        mProgressRect.set(bounds.left + totalMargin, bounds.top + totalMargin,
+                bounds.right - totalMargin, bounds.bottom - totalMargin);
+
+        setCenteredBounds(mIdleIconBounds, style.getIdleIconWidth(), style.getIdleIconHeight());
+        setCenteredBounds(mCancelIconBounds, style.getCancelIconWidth(), style.getCancelIconHeight());
+        setCenteredBounds(mFinishIconBounds, style.getFinishIconWidth(), style.getFinishIconHeight());
+
+        updateMinVisibleDegrees();
+    }
+
+    private void setCenteredBounds(Rect rect, int width, int height) {
+        Rect bounds = getBounds();
+        int left = bounds.centerX() - (width / 2);
+        int top = bounds.centerY() - (height / 2);
+        rect.set(left, top, left + width, top + height);
+    }
+
+    /**
+     * Smallest sweep (in degrees) that moves the arc end by one pixel, from the circumference of the
+     * ring measured in pixels (so already scaled by the screen density).
+     */
+    private void updateMinVisibleDegrees() {
+        Rect bounds = getBounds();
+        float radius = Math.min(bounds.width(), bounds.height()) / 2.0f
+                - mStyle.getProgressMargin() - mStyle.getProgressWidth() / 2.0f;
+        float circumference = (float) (2 * Math.PI * radius);
+        mMinVisibleDegrees = circumference >= 1 ? 360f / circumference : 0;
+    }
+
+    private int getRingThickness() {
+        return mStyle.getProgressMargin() + (int) Math.ceil(mStyle.getProgressWidth());
+    }
+
+    private float getDegrees() {
+        return ((float)mCurrProgress / (float)mMaxProgress) * 360;
+    }
+
+    private void drawIcon(Drawable drawable, Canvas canvas, Rect iconBounds) {
+        // icons are shared by the buttons using the same style, another one may have moved it. Setting
+        // bounds equal to the current ones is only a comparison.
+        drawable.setBounds(iconBounds);
+        drawable.draw(canvas);
+    }
+}
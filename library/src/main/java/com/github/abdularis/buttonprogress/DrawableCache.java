@@ -0,0 +1,196 @@
+package com.github.abdularis.buttonprogress;
+
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffColorFilter;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.util.LruCache;
+
+/**
+ * Process wide cache of the icon and background drawables used by {@link DownloadButtonProgress},
+ * so buttons inflated again and again (e.g. in a RecyclerView) share the same drawable
+ * {@link Drawable.ConstantState} and rasterized bitmaps instead of loading their own copies.
+ *
+ * Entries are keyed by resource id, target size and tint, and evicted in LRU order once the
+ * memory budget ({@link #setMaxSize(int)}, in bytes) is exceeded. A bitmap counts its byte count,
+ * a constant state the pixels of its drawable at its intrinsic size (the bitmap of a bitmap
+ * drawable, the cache a vector drawable keeps once drawn). The whole cache is dropped when the
+ * resources configuration changes.
+ *
+ * Drawables returned by this cache share their state with each other, call
+ * {@link Drawable#mutate()} before changing it.
+ */
+public final class DrawableCache {
+
+    private static final int BYTES_PER_PIXEL = 4;
+    private static final int DEF_MAX_SIZE = (int) Math.min(Runtime.getRuntime().maxMemory() / 64, Integer.MAX_VALUE);
+
+    private static DrawableCache sInstance;
+
+    private final Cache mCache = new Cache(DEF_MAX_SIZE);
+    private final Key mLookupKey = new Key();
+    private final Configuration mConfiguration = new Configuration();
+
+    public static synchronized DrawableCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new DrawableCache();
+        }
+        return sInstance;
+    }
+
+    private DrawableCache() {
+    }
+
+    /**
+     * @return new drawable instance for resId sharing its constant state with every other drawable
+     * obtained from this cache for the same resource
+     */
+    public synchronized Drawable getDrawable(Resources res, int resId) {
+        Drawable.ConstantState state = getConstantState(res, resId);
+        return state != null ? state.newDrawable(res) : res.getDrawable(resId);
+    }
+
+    /**
+     * @return shared bitmap of resId rendered at the given size, tinted with tint (0 for no tint),
+     * e.g. for notification or widget icons. The bitmap is shared, it must not be modified nor
+     * recycled.
+     */
+    public synchronized Bitmap getBitmap(Resources res, int resId, int width, int height, int tint) {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("Invalid size: " + width + "x" + height);
+
+        checkConfiguration(res);
+        Entry cached = mCache.get(mLookupKey.set(resId, width, height, tint));
+        if (cached != null) return (Bitmap) cached.mValue;
+
+        Drawable drawable = getDrawable(res, resId).mutate();
+        if (tint != 0) drawable.setColorFilter(new PorterDuffColorFilter(tint, PorterDuff.Mode.SRC_IN));
+        drawable.setBounds(0, 0, width, height);
+
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        drawable.draw(new Canvas(bitmap));
+        mCache.put(new Key().set(resId, width, height, tint), new Entry(bitmap, bitmap.getByteCount()));
+        return bitmap;
+    }
+
+    public synchronized void setMaxSize(int maxSize) {
+        mCache.resize(maxSize);
+    }
+
+    public synchronized int getMaxSize() {
+        return mCache.maxSize();
+    }
+
+    /**
+     * @return size in bytes of the cached entries, see {@link DrawableCache}
+     */
+    public synchronized int getSize() {
+        return mCache.size();
+    }
+
+    public synchronized int getHitCount() {
+        return mCache.hitCount();
+    }
+
+    public synchronized int getMissCount() {
+        return mCache.missCount();
+    }
+
+    public synchronized int getEvictionCount() {
+        return mCache.evictionCount();
+    }
+
+    public synchronized void clear() {
+        mCache.evictAll();
+    }
+
+    private Drawable.ConstantState getConstantState(Resources res, int resId) {
+        checkConfiguration(res);
+        // size 0 is the drawable itself, bitmaps have a positive size
+        Entry cached = mCache.get(mLookupKey.set(resId, 0, 0, 0));
+        if (cached != null) return (Drawable.ConstantState) cached.mValue;
+
+        Drawable drawable = res.getDrawable(resId);
+        Drawable.ConstantState state = drawable.getConstantState();
+        if (state != null) mCache.put(new Key().set(resId, 0, 0, 0), new Entry(state, byteCountOf(drawable)));
+        return state;
+    }
+
+    private void checkConfiguration(Resources res) {
+        Configuration configuration = res.getConfiguration();
+        if (!mConfiguration.equals(configuration)) {
+            mCache.evictAll();
+            mConfiguration.setTo(configuration);
+        }
+    }
+
+    private static int byteCountOf(Drawable drawable) {
+        if (drawable instanceof BitmapDrawable && ((BitmapDrawable) drawable).getBitmap() != null) {
+            return ((BitmapDrawable) drawable).getBitmap().getByteCount();
+        }
+        // e.g. a color drawable has no intrinsic size
+        return Math.max(1, drawable.getIntrinsicWidth()) * Math.max(1, drawable.getIntrinsicHeight()) * BYTES_PER_PIXEL;
+    }
+
+    private static final class Cache extends LruCache<Key, Entry> {
+
+        Cache(int maxSize) {
+            super(maxSize);
+        }
+
+        @Override
+        protected int sizeOf(Key key, Entry value) {
+            return value.mSize;
+        }
+    }
+
+    /**
+     * Cached constant state or bitmap with its size in bytes, measured once when put
+     */
+    private static final class Entry {
+        final Object mValue;
+        final int mSize;
+
+        Entry(Object value, int size) {
+            mValue = value;
+            mSize = size;
+        }
+    }
+
+    private static final class Key {
+        int mResId;
+        int mWidth;
+        int mHeight;
+        int mTint;
+
+        Key set(int resId, int width, int height, int tint) {
+            mResId = resId;
+            mWidth = width;
+            mHeight = height;
+            mTint = tint;
+            return this;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return mResId == key.mResId && mWidth == key.mWidth
+                    && mHeight == key.mHeight && mTint == key.mTint;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mResId;
+            result = 31 * result + mWidth;
+            result = 31 * result + mHeight;
+            result = 31 * result + mTint;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.github.abdularis.buttonprogress;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+
+import java.util.concurrent.Flow;
+
+/**
+ * {@link ProgressSource} of the items of a {@link Flow.Publisher}, requests and cancellations are
+ * forwarded to the publisher. Flow is only available from API 30, sources for older devices
+ * implement {@link ProgressSource} directly.
+ *
+ * @param <T> type of the published items, mapped to a progress by {@link #getCurrent(Object)}
+ *            and {@link #getMax(Object)}
+ */
+@TargetApi(Build.VERSION_CODES.R)
+public abstract class FlowProgressSource<T> implements ProgressSource {
+
+    private final Flow.Publisher<? extends T> mPublisher;
+
+    public FlowProgressSource(Flow.Publisher<? extends T> publisher) {
+        mPublisher = publisher;
+    }
+
+    protected abstract long getCurrent(T item);
+
+    protected abstract long getMax(T item);
+
+    @Override
+    public void subscribe(final Subscriber subscriber) {
+        mPublisher.subscribe(new Flow.Subscriber<T>() {
+            @Override
+            public void onSubscribe(final Flow.Subscription subscription) {
+                subscriber.onSubscribe(new Subscription() {
+                    @Override
+                    public void request(long n) {
+                        subscription.request(n);
+                    }
+
+                    @Override
+                    public void cancel() {
+                        subscription.cancel();
+                    }
+                });
+            }
+
+            @Override
+            public void onNext(T item) {
+                subscriber.onProgress(getCurrent(item), getMax(item));
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                subscriber.onError(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                subscriber.onComplete();
+            }
+        });
+    }
+}
@@ -0,0 +1,288 @@
+package com.github.abdularis.buttonprogress;
+
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+/**
+ * Process wide frame ticker shared by every animating button. Instead of one animator per view
+ * a single frame callback is posted while at least one client is registered, each frame all the
+ * registered clients are notified with the same frame time so every spinner stays in phase.
+ *
+ * Clients should only be registered while they are visible, so the cost of a frame grows with
+ * the number of visible animating views, not with the number of views ever created.
+ *
+ * A client can ask for frames at a lower rate by giving the interval between its frames. When
+ * every registered client has such an interval the next frame callback is posted with a delay
+ * until the earliest of them is due, so a capped spinner does not wake the main thread on every
+ * vsync.
+ *
+ * All methods must be called from the main thread.
+ */
+final class FrameClock {
+
+    private static final long FALLBACK_FRAME_DELAY = 16;
+    private static final int INITIAL_CAPACITY = 8;
+    // frame times jitter around the vsync, so a 30fps cap on a 60Hz display keeps every other frame
+    private static final long FRAME_SLACK_NANOS = 2000000;
+
+    private static FrameClock sInstance;
+
+    private final Ticker mTicker;
+
+    private Client[] mClients = new Client[INITIAL_CAPACITY];
+    // per client, nanoseconds between its frames (0 for every frame) and time of its next frame
+    private long[] mIntervals = new long[INITIAL_CAPACITY];
+    private long[] mDueTimes = new long[INITIAL_CAPACITY];
+    private int mClientCount;
+    private boolean mDispatching;
+    private boolean mHasRemovedClients;
+    private boolean mFrameScheduled;
+    // System.nanoTime() the scheduled frame was delayed to
+    private long mScheduledTimeNanos;
+    private long mFrameTimeNanos = System.nanoTime();
+    private int mFrameCount;
+
+    static FrameClock getInstance() {
+        if (sInstance == null) {
+            sInstance = new FrameClock();
+        }
+        return sInstance;
+    }
+
+    private FrameClock() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            mTicker = new ChoreographerTicker(this);
+        } else {
+            mTicker = new HandlerTicker(this);
+        }
+    }
+
+    /**
+     * Register client to be notified on every frame, registering the same client twice has no effect.
+     */
+    void register(Client client) {
+        register(client, 0);
+    }
+
+    /**
+     * Register client to be notified on its next frame and then every intervalNanos (0 for every
+     * frame), registering a client again only changes its interval.
+     */
+    void register(Client client, long intervalNanos) {
+        int index = indexOf(client);
+        if (index >= 0) {
+            if (mIntervals[index] == intervalNanos) return;
+            mIntervals[index] = intervalNanos;
+        } else {
+            if (mClientCount == mClients.length) grow();
+            index = mClientCount++;
+            mClients[index] = client;
+            mIntervals[index] = intervalNanos;
+        }
+        mDueTimes[index] = 0;
+
+        // a frame delayed for the other clients comes too late for this one
+        if (mFrameScheduled && mScheduledTimeNanos > System.nanoTime()) {
+            mTicker.cancelFrame();
+            mFrameScheduled = false;
+        }
+        if (!mFrameScheduled) scheduleFrame();
+    }
+
+    void unregister(Client client) {
+        int index = indexOf(client);
+        if (index < 0) return;
+
+        if (mDispatching) {
+            // compacted once the current frame has been dispatched
+            mClients[index] = null;
+            mHasRemovedClients = true;
+        } else {
+            removeAt(index);
+        }
+    }
+
+    boolean isRegistered(Client client) {
+        return indexOf(client) >= 0;
+    }
+
+    int getClientCount() {
+        return mClientCount;
+    }
+
+    /**
+     * @return number of frame callbacks run so far
+     */
+    int getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * @return time of the current (or the last dispatched) frame in {@link System#nanoTime()} base
+     */
+    long getFrameTimeNanos() {
+        return mFrameTimeNanos;
+    }
+
+    /**
+     * @return rotation in degrees [0, 360) of a spinner doing one full turn every periodMillis,
+     * derived from the frame time so all the spinners share the same phase. Sub degree precision
+     * is kept so the arc moves smoothly even on large views.
+     */
+    float getSpinnerAngle(long periodMillis) {
+        return getSpinnerAngle(mFrameTimeNanos, periodMillis);
+    }
+
+    /**
+     * @return rotation in degrees [0, 360) of the spinners at timeNanos, in {@link System#nanoTime()}
+     * base
+     */
+    static float getSpinnerAngle(long timeNanos, long periodMillis) {
+        long periodNanos = periodMillis * 1000000L;
+        return (float) (timeNanos % periodNanos) / periodNanos * 360f;
+    }
+
+    private void doFrame(long frameTimeNanos) {
+        mFrameScheduled = false;
+        mFrameCount++;
+        dispatchFrame(frameTimeNanos);
+
+        if (mClientCount > 0 && !mFrameScheduled) scheduleFrame();
+    }
+
+    /**
+     * Post the next frame callback, delayed until the earliest due client when none wants every
+     * frame
+     */
+    private void scheduleFrame() {
+        long dueTimeNanos = Long.MAX_VALUE;
+        for (int i = 0; i < mClientCount; i++) {
+            if (mClients[i] != null) dueTimeNanos = Math.min(dueTimeNanos, mDueTimes[i]);
+        }
+        if (dueTimeNanos == Long.MAX_VALUE) return;
+
+        long now = System.nanoTime();
+        long delayMillis = Math.max(0, (dueTimeNanos - FRAME_SLACK_NANOS - now) / 1000000);
+        mFrameScheduled = true;
+        mScheduledTimeNanos = now + delayMillis * 1000000;
+        mTicker.postFrame(delayMillis);
+    }
+
+    /**
+     * Notify every registered client due for a new frame. This is the per frame hot path, it
+     * iterates plain arrays and must not allocate.
+     */
+    void dispatchFrame(long frameTimeNanos) {
+        mFrameTimeNanos = frameTimeNanos;
+
+        mDispatching = true;
+        int count = mClientCount;
+        for (int i = 0; i < count; i++) {
+            Client client = mClients[i];
+            if (client == null || frameTimeNanos < mDueTimes[i] - FRAME_SLACK_NANOS) continue;
+
+            mDueTimes[i] = frameTimeNanos + mIntervals[i];
+            client.onFrame(frameTimeNanos);
+        }
+        mDispatching = false;
+
+        if (mHasRemovedClients) {
+            mHasRemovedClients = false;
+            for (int i = mClientCount - 1; i >= 0; i--) {
+                if (mClients[i] == null) removeAt(i);
+            }
+        }
+    }
+
+    private int indexOf(Client client) {
+        for (int i = 0; i < mClientCount; i++) {
+            if (mClients[i] == client) return i;
+        }
+        return -1;
+    }
+
+    private void removeAt(int index) {
+        int last = --mClientCount;
+        mClients[index] = mClients[last];
+        mIntervals[index] = mIntervals[last];
+        mDueTimes[index] = mDueTimes[last];
+        mClients[last] = null;
+    }
+
+    private void grow() {
+        int capacity = mClients.length * 2;
+        Client[] clients = new Client[capacity];
+        long[] intervals = new long[capacity];
+        long[] dueTimes = new long[capacity];
+        System.arraycopy(mClients, 0, clients, 0, mClientCount);
+        System.arraycopy(mIntervals, 0, intervals, 0, mClientCount);
+        System.arraycopy(mDueTimes, 0, dueTimes, 0, mClientCount);
+        mClients = clients;
+        mIntervals = intervals;
+        mDueTimes = dueTimes;
+    }
+
+    interface Client {
+        void onFrame(long frameTimeNanos);
+    }
+
+    private interface Ticker {
+        void postFrame(long delayMillis);
+
+        void cancelFrame();
+    }
+
+    private static final class ChoreographerTicker implements Ticker, Choreographer.FrameCallback {
+
+        private final FrameClock mClock;
+
+        ChoreographerTicker(FrameClock clock) {
+            mClock = clock;
+        }
+
+        @Override
+        public void postFrame(long delayMillis) {
+            Choreographer.getInstance().postFrameCallbackDelayed(this, delayMillis);
+        }
+
+        @Override
+        public void cancelFrame() {
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mClock.doFrame(frameTimeNanos);
+        }
+    }
+
+    /**
+     * Choreographer is not public before jelly bean, fallback to a ~60fps handler loop
+     */
+    private static final class HandlerTicker implements Ticker, Runnable {
+
+        private final FrameClock mClock;
+        private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+        HandlerTicker(FrameClock clock) {
+            mClock = clock;
+        }
+
+        @Override
+        public void postFrame(long delayMillis) {
+            mHandler.postDelayed(this, Math.max(delayMillis, FALLBACK_FRAME_DELAY));
+        }
+
+        @Override
+        public void cancelFrame() {
+            mHandler.removeCallbacks(this);
+        }
+
+        @Override
+        public void run() {
+            mClock.doFrame(System.nanoTime());
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.github.abdularis.buttonprogress;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Copy-on-write list of listeners, each with an optional {@link Executor} to be called on.
+ *
+ * Adding and removing copy the array, dispatching only reads the current array once and iterates it
+ * by index, so listeners can be added or removed (even by a listener being called) while it is
+ * dispatched and dispatching to inline listeners allocates nothing.
+ */
+final class ListenerList<T> {
+
+    private static final Entry<?>[] EMPTY = new Entry<?>[0];
+
+    private volatile Entry<T>[] mEntries = emptyEntries();
+
+    /**
+     * Add listener, called inline when executor is null. Adding a listener again only changes its
+     * executor.
+     */
+    synchronized void add(T listener, Executor executor) {
+        if (listener == null) throw new NullPointerException("listener == null");
+
+        Entry<T>[] entries = mEntries;
+        int index = indexOf(entries, listener);
+        if (index >= 0) {
+            if (entries[index].executor() == executor) return;
+            entries = entries.clone();
+        } else {
+            index = entries.length;
+            Entry<T>[] grown = newEntries(index + 1);
+            System.arraycopy(entries, 0, grown, 0, index);
+            entries = grown;
+        }
+        entries[index] = new Entry<>(listener, executor);
+        mEntries = entries;
+    }
+
+    synchronized void remove(T listener) {
+        Entry<T>[] entries = mEntries;
+        int index = indexOf(entries, listener);
+        if (index < 0) return;
+
+        Entry<T>[] shrunk = entries.length == 1 ? ListenerList.<T>emptyEntries() : newEntries(entries.length - 1);
+        System.arraycopy(entries, 0, shrunk, 0, index);
+        System.arraycopy(entries, index + 1, shrunk, index, entries.length - index - 1);
+        mEntries = shrunk;
+    }
+
+    /**
+     * @return current listeners, never modified afterwards, to be iterated by index
+     */
+    Entry<T>[] entries() {
+        return mEntries;
+    }
+
+    private static <T> int indexOf(Entry<T>[] entries, Object listener) {
+        for (int i = 0; i < entries.length; i++) {
+            if (entries[i].listener().equals(listener)) return i;
+        }
+        return -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Entry<T>[] emptyEntries() {
+        return (Entry<T>[]) EMPTY;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Entry<T>[] newEntries(int length) {
+        return (Entry<T>[]) new Entry<?>[length];
+    }
+
+    static final class Entry<T> {
+        private final T mListener;
+        private final Executor mExecutor;
+
+        Entry(T listener, Executor executor) {
+            mListener = listener;
+            mExecutor = executor;
+        }
+
+        T listener() {
+            return mListener;
+        }
+
+        /**
+         * @return executor to call the listener through, null to call it inline
+         */
+        Executor executor() {
+            return mExecutor;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.github.abdularis.buttonprogress;
+
+import android.annotation.TargetApi;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.ContentObserver;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.provider.Settings;
+
+/**
+ * Process wide view of the system settings that limit animations: battery saver and the animator
+ * duration scale set to 0 ("remove animations" or "animation scale off" in the developer or
+ * accessibility settings). Spinners follow {@link #getMode()}, running at full rate, at a low
+ * power rate, or not at all.
+ *
+ * Starts following the settings the first time {@link #init(Context)} is called, before that (or
+ * on API levels without the setting) the mode is {@link #MODE_FULL}. All methods must be called
+ * from the main thread.
+ */
+final class MotionPolicy {
+
+    static final int MODE_FULL = 0;
+    static final int MODE_LOW_POWER = 1;
+    static final int MODE_STATIC = 2;
+    static final int NO_FORCED_MODE = -1;
+
+    private static MotionPolicy sInstance;
+
+    private final ListenerList<Listener> mListeners = new ListenerList<>();
+    private Context mContext;
+    private boolean mPowerSaveMode;
+    private boolean mAnimatorsDisabled;
+    private int mMode = MODE_FULL;
+    private int mForcedMode = NO_FORCED_MODE;
+
+    static MotionPolicy getInstance() {
+        if (sInstance == null) {
+            sInstance = new MotionPolicy();
+        }
+        return sInstance;
+    }
+
+    private MotionPolicy() {
+    }
+
+    /**
+     * Start following the system settings, only the first call has an effect
+     */
+    void init(Context context) {
+        if (mContext != null) return;
+        mContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            watchPowerSaveMode();
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            watchAnimatorDurationScale();
+        }
+        updateMode();
+    }
+
+    int getMode() {
+        return mMode;
+    }
+
+    /**
+     * Use mode whatever the system settings, {@link #NO_FORCED_MODE} to follow them again. Used by
+     * tests, which often run with animations turned off.
+     */
+    void setForcedMode(int mode) {
+        mForcedMode = mode;
+        updateMode();
+    }
+
+    /**
+     * Listener is notified when the mode changes, it is held strongly until removed
+     */
+    void addListener(Listener listener) {
+        mListeners.add(listener, null);
+    }
+
+    void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void watchPowerSaveMode() {
+        final PowerManager powerManager = (PowerManager) mContext.getSystemService(Context.POWER_SERVICE);
+        if (powerManager == null) return;
+
+        mPowerSaveMode = powerManager.isPowerSaveMode();
+        mContext.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                mPowerSaveMode = powerManager.isPowerSaveMode();
+                updateMode();
+            }
+        }, new IntentFilter(PowerManager.ACTION_POWER_SAVE_MODE_CHANGED));
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+    private void watchAnimatorDurationScale() {
+        mAnimatorsDisabled = readAnimatorDurationScale() == 0;
+        mContext.getContentResolver().registerContentObserver(
+                Settings.Global.getUriFor(Settings.Global.ANIMATOR_DURATION_SCALE), false,
+                new ContentObserver(new Handler(Looper.getMainLooper())) {
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        mAnimatorsDisabled = readAnimatorDurationScale() == 0;
+                        updateMode();
+                    }
+                });
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+    private float readAnimatorDurationScale() {
+        return Settings.Global.getFloat(mContext.getContentResolver(), Settings.Global.ANIMATOR_DURATION_SCALE, 1f);
+    }
+
+    private void updateMode() {
+        int mode;
+        if (mForcedMode != NO_FORCED_MODE) {
+            mode = mForcedMode;
+        } else {
+            mode = mAnimatorsDisabled ? MODE_STATIC : mPowerSaveMode ? MODE_LOW_POWER : MODE_FULL;
+        }
+        if (mode == mMode) return;
+
+        mMode = mode;
+        ListenerList.Entry<Listener>[] entries = mListeners.entries();
+        for (int i = 0; i < entries.length; i++) {
+            Listener listener = entries[i].listener();
+            listener.onMotionModeChanged(mode);
+        }
+    }
+
+    interface Listener {
+        void onMotionModeChanged(int mode);
+    }
+}
@@ -0,0 +1,186 @@
+package com.github.abdularis.buttonprogress;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.drawable.Drawable;
+import android.util.LruCache;
+
+/**
+ * Renders the states of a button into bitmaps without a view, for the places a
+ * {@link DownloadButtonProgress} can not be hosted: notifications, app widgets and other
+ * {@link android.widget.RemoteViews}. Drawing is done by a {@link DownloadProgressDrawable} with
+ * the given style, so the frames look like the button.
+ *
+ * Determinate progress is quantized to a number of steps and the spinner to a number of phases
+ * of a turn, so the frames repeat and are kept in a LRU cache bounded in bytes
+ * ({@link #setMaxSize(int)}). Once warm, a notification update is a cache lookup.
+ *
+ * Can be used from any thread, frames are rendered in software on the calling thread. The icons
+ * and backgrounds of the style are copied from their constant state, so rendering does not
+ * disturb the buttons sharing it, a style with a drawable that has no constant state is rejected.
+ * Returned bitmaps are shared, they must not be modified nor recycled.
+ */
+public final class ProgressFrameRenderer {
+
+    public static final int DEF_DETERMINATE_STEPS = 100;
+    public static final int DEF_SPINNER_PHASES = 12;
+
+    private static final int DEF_MAX_SIZE = (int) Math.min(Runtime.getRuntime().maxMemory() / 64, Integer.MAX_VALUE);
+    private static final int IDLE_KEY = 0;
+    private static final int FINISHED_KEY = 1;
+    private static final int SPINNER_KEY = 2;
+
+    private final DownloadProgressDrawable mDrawable;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mDeterminateSteps;
+    private final int mSpinnerPhases;
+    private final Cache mCache = new Cache(DEF_MAX_SIZE);
+
+    public ProgressFrameRenderer(ButtonProgressStyle style, int width, int height) {
+        this(style, width, height, DEF_DETERMINATE_STEPS, DEF_SPINNER_PHASES);
+    }
+
+    /**
+     * @param determinateSteps number of distinct determinate frames between empty and full
+     * @param spinnerPhases number of distinct spinner frames in a turn
+     * @throws IllegalArgumentException when a drawable of style has no constant state to copy
+     */
+    public ProgressFrameRenderer(ButtonProgressStyle style, int width, int height,
+                                 int determinateSteps, int spinnerPhases) {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("Invalid size: " + width + "x" + height);
+        if (determinateSteps <= 0)
+            throw new IllegalArgumentException("determinateSteps must be positive: " + determinateSteps);
+        if (spinnerPhases <= 0)
+            throw new IllegalArgumentException("spinnerPhases must be positive: " + spinnerPhases);
+
+        mWidth = width;
+        mHeight = height;
+        mDeterminateSteps = determinateSteps;
+        mSpinnerPhases = spinnerPhases;
+
+        mDrawable = new DownloadProgressDrawable(style.buildUpon()
+                .setIdleIcon(copyOf(style.getIdleIcon()))
+                .setCancelIcon(copyOf(style.getCancelIcon()))
+                .setFinishIcon(copyOf(style.getFinishIcon()))
+                .setIdleBgDrawable(copyOf(style.getIdleBgDrawable()))
+                .setIndeterminateBgDrawable(copyOf(style.getIndeterminateBgDrawable()))
+                .setDeterminateBgDrawable(copyOf(style.getDeterminateBgDrawable()))
+                .setFinishBgDrawable(copyOf(style.getFinishBgDrawable()))
+                .build());
+        mDrawable.setBounds(0, 0, width, height);
+    }
+
+    /**
+     * @return frame of state, current and max are only used while determinate. The indeterminate
+     * frame follows the time, so frames fetched one after another show a turning spinner.
+     */
+    public Bitmap getFrame(int state, long current, long max) {
+        switch (state) {
+            case DownloadProgressDrawable.STATE_IDLE:
+                return getFrame(IDLE_KEY, state, 0, 0);
+            case DownloadProgressDrawable.STATE_FINISHED:
+                return getFrame(FINISHED_KEY, state, 0, 0);
+            case DownloadProgressDrawable.STATE_INDETERMINATE:
+                long periodMillis = DownloadProgressDrawable.INDETERMINATE_PERIOD;
+                long elapsed = System.nanoTime() / 1000000 % periodMillis;
+                return getSpinnerFrame((int) (elapsed * mSpinnerPhases / periodMillis));
+            case DownloadProgressDrawable.STATE_DETERMINATE:
+                return getDeterminateFrame(current, max);
+            default:
+                throw new IllegalArgumentException("Invalid state: " + state);
+        }
+    }
+
+    /**
+     * @return determinate frame of the step closest below current / max
+     */
+    public Bitmap getDeterminateFrame(long current, long max) {
+        if (max <= 0) throw new IllegalArgumentException("max must be positive: " + max);
+
+        current = Math.max(0, Math.min(current, max));
+        int step = (int) (current * (double) mDeterminateSteps / max);
+        float degrees = (float) step / mDeterminateSteps * 360f;
+        return getFrame(SPINNER_KEY + mSpinnerPhases + step, DownloadProgressDrawable.STATE_DETERMINATE, degrees, 0);
+    }
+
+    /**
+     * @return indeterminate frame with the spinner turned by phase / spinner phases of a turn,
+     * phase 0 has the arc starting at the top
+     */
+    public Bitmap getSpinnerFrame(int phase) {
+        phase = ((phase % mSpinnerPhases) + mSpinnerPhases) % mSpinnerPhases;
+        float rotation = (float) phase / mSpinnerPhases * 360f;
+        return getFrame(SPINNER_KEY + phase, DownloadProgressDrawable.STATE_INDETERMINATE, 0, rotation);
+    }
+
+    public int getDeterminateSteps() {
+        return mDeterminateSteps;
+    }
+
+    public int getSpinnerPhases() {
+        return mSpinnerPhases;
+    }
+
+    public synchronized void setMaxSize(int maxSize) {
+        mCache.resize(maxSize);
+    }
+
+    public synchronized int getMaxSize() {
+        return mCache.maxSize();
+    }
+
+    /**
+     * @return size in bytes of the cached frames
+     */
+    public synchronized int getSize() {
+        return mCache.size();
+    }
+
+    public synchronized int getHitCount() {
+        return mCache.hitCount();
+    }
+
+    public synchronized int getMissCount() {
+        return mCache.missCount();
+    }
+
+    public synchronized void clear() {
+        mCache.evictAll();
+    }
+
+    private synchronized Bitmap getFrame(int key, int state, float degrees, float spinnerRotation) {
+        Bitmap frame = mCache.get(key);
+        if (frame != null) return frame;
+
+        frame = Bitmap.createBitmap(mWidth, mHeight, Bitmap.Config.ARGB_8888);
+        mDrawable.drawFrame(new Canvas(frame), state, degrees, spinnerRotation);
+        mCache.put(key, frame);
+        return frame;
+    }
+
+    /**
+     * @return copy of drawable with its own bounds and state, the original may be drawn on the
+     * main thread meanwhile
+     */
+    private static Drawable copyOf(Drawable drawable) {
+        if (drawable == null) return null;
+        Drawable copy = ButtonProgressStyle.newCopy(drawable);
+        if (copy == null)
+            throw new IllegalArgumentException("Drawable without constant state can not be copied: " + drawable);
+        return copy;
+    }
+
+    private static final class Cache extends LruCache<Integer, Bitmap> {
+
+        Cache(int maxSize) {
+            super(maxSize);
+        }
+
+        @Override
+        protected int sizeOf(Integer key, Bitmap value) {
+            return value.getByteCount();
+        }
+    }
+}
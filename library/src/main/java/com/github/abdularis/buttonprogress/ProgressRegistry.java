@@ -0,0 +1,275 @@
+package com.github.abdularis.buttonprogress;
+
+/**
+ * Keeps the state and progress of many transfers keyed by id, and forwards updates only to the
+ * {@link DownloadButtonProgress} currently bound to that id. Meant for lists (e.g. RecyclerView)
+ * where buttons are recycled: bind the button to its item id in onBindViewHolder and unbind it in
+ * onViewRecycled, the button then shows the stored state right away without notifying its
+ * {@link DownloadButtonProgress.OnStateChangedListener}s.
+ *
+ * State is kept in primitive arrays (open addressing), so an update costs the same whatever the
+ * number of transfers, and updates for ids without a bound button only touch the arrays.
+ *
+ * Transitions of a bound button, e.g. set idle by its cancel click listener, are written back to
+ * its id, so the registry never shows a cancelled transfer again on the next bind.
+ *
+ * {@link #setState(long, int)} and {@link #setProgress(long, long, long)} can be called from any
+ * thread, the bound button is updated after releasing the lock of this registry, so its listeners
+ * never run under it. Bind and unbind must be called from the main thread.
+ */
+public final class ProgressRegistry {
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int EMPTY = 0;
+    private static final long DEF_PROGRESS = (long) DownloadProgressDrawable.DEF_MAX_PROGRESS << 32;
+
+    // capacity is always a power of two, a slot is free when its state is EMPTY
+    private long[] mIds = new long[INITIAL_CAPACITY];
+    private int[] mStates = new int[INITIAL_CAPACITY];
+    private long[] mProgress = new long[INITIAL_CAPACITY];
+    private DownloadButtonProgress[] mViews = new DownloadButtonProgress[INITIAL_CAPACITY];
+    private int mSize;
+
+    /**
+     * Bind view to id, the view is unbound from its previous id (if any) and shows the state
+     * stored for id (idle for an unknown id) without notifying its listeners. A view previously
+     * bound to id is unbound.
+     */
+    public void bind(long id, DownloadButtonProgress view) {
+        ProgressRegistry previousRegistry = view.mRegistry;
+        if (previousRegistry != null && previousRegistry != this) previousRegistry.unbind(view);
+
+        synchronized (this) {
+            if (view.mRegistry == this) {
+                if (view.mRegistryId == id) return;
+                unbindLocked(view);
+            }
+
+            int index = indexOf(id);
+            if (index < 0) index = insert(id, DownloadButtonProgress.STATE_IDLE, DEF_PROGRESS);
+
+            DownloadButtonProgress previousView = mViews[index];
+            if (previousView != null) previousView.mRegistry = null;
+
+            mViews[index] = view;
+            view.mRegistry = this;
+            view.mRegistryId = id;
+            view.mRegistryResetSequence = view.restoreState(mStates[index], mProgress[index]);
+            view.mRegistrySequence = view.mRegistryResetSequence;
+        }
+    }
+
+    /**
+     * Stop forwarding updates to view, its state is kept by this registry
+     */
+    public synchronized void unbind(DownloadButtonProgress view) {
+        if (view.mRegistry == this) unbindLocked(view);
+    }
+
+    /**
+     * Same as {@link DownloadButtonProgress#publishState(int)} for the button bound to id, only the
+     * transitions allowed by {@link ProgressStateMachine} are applied (an unknown id is idle), each
+     * of them resets the progress.
+     *
+     * @return whether id is in state afterwards
+     */
+    public boolean setState(long id, int state) {
+        if (state < DownloadButtonProgress.STATE_IDLE || state > DownloadButtonProgress.STATE_FINISHED)
+            throw new IllegalArgumentException("Unknown state: " + state);
+
+        DownloadButtonProgress view;
+        long resetSequence;
+        synchronized (this) {
+            int index = indexOf(id);
+            int currState = index >= 0 ? mStates[index] : DownloadButtonProgress.STATE_IDLE;
+            if (currState == state) return true;
+            if (!ProgressStateMachine.isTransitionAllowed(currState, state)) return false;
+
+            if (index < 0) {
+                insert(id, state, DEF_PROGRESS);
+                return true;
+            }
+
+            mStates[index] = state;
+            mProgress[index] &= 0xFFFFFFFF00000000L;
+
+            view = mViews[index];
+            if (view == null) return true;
+            resetSequence = view.mRegistryResetSequence;
+        }
+        view.publishRegistryState(state, resetSequence);
+        return true;
+    }
+
+    /**
+     * Same as {@link DownloadButtonProgress#publishProgress(long, long)} for the button bound to id.
+     * Ignored unless id is {@link DownloadButtonProgress#STATE_DETERMINATE}, like the progress of a
+     * button.
+     */
+    public void setProgress(long id, long current, long max) {
+        long packedProgress = DownloadButtonProgress.packProgress(current, max);
+
+        DownloadButtonProgress view;
+        long resetSequence;
+        synchronized (this) {
+            int index = indexOf(id);
+            if (index < 0 || mStates[index] != DownloadButtonProgress.STATE_DETERMINATE) return;
+
+            mProgress[index] = packedProgress;
+
+            view = mViews[index];
+            if (view == null) return;
+            resetSequence = view.mRegistryResetSequence;
+        }
+        view.publishRegistryProgress(packedProgress, resetSequence);
+    }
+
+    /**
+     * @return state stored for id, {@link DownloadButtonProgress#STATE_IDLE} for an unknown id
+     */
+    public synchronized int getState(long id) {
+        int index = indexOf(id);
+        return index >= 0 ? mStates[index] : DownloadButtonProgress.STATE_IDLE;
+    }
+
+    public synchronized int getProgress(long id) {
+        int index = indexOf(id);
+        return index >= 0 ? (int) mProgress[index] : 0;
+    }
+
+    public synchronized int getMaxProgress(long id) {
+        int index = indexOf(id);
+        return (int) ((index >= 0 ? mProgress[index] : DEF_PROGRESS) >>> 32);
+    }
+
+    public synchronized boolean contains(long id) {
+        return indexOf(id) >= 0;
+    }
+
+    /**
+     * Forget id, a view bound to it is unbound and keeps showing its current state
+     */
+    public synchronized void remove(long id) {
+        int index = indexOf(id);
+        if (index < 0) return;
+
+        DownloadButtonProgress view = mViews[index];
+        if (view != null) view.mRegistry = null;
+        removeAt(index);
+    }
+
+    public synchronized int size() {
+        return mSize;
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < mViews.length; i++) {
+            if (mViews[i] != null) mViews[i].mRegistry = null;
+            mViews[i] = null;
+            mStates[i] = EMPTY;
+        }
+        mSize = 0;
+    }
+
+    /**
+     * Write a transition of a bound view back to its id, on the thread that made it. Transitions
+     * made before the view was bound, or notified after a later one, are ignored.
+     */
+    synchronized void onViewStateChanged(DownloadButtonProgress view, int state, long sequence) {
+        if (view.mRegistry != this || sequence <= view.mRegistrySequence) return;
+        int index = indexOf(view.mRegistryId);
+        if (index < 0 || mViews[index] != view) return;
+
+        view.mRegistrySequence = sequence;
+        if (mStates[index] != state) {
+            mStates[index] = state;
+            mProgress[index] &= 0xFFFFFFFF00000000L;
+        }
+    }
+
+    private void unbindLocked(DownloadButtonProgress view) {
+        int index = indexOf(view.mRegistryId);
+        if (index >= 0 && mViews[index] == view) mViews[index] = null;
+        view.mRegistry = null;
+    }
+
+    private static int hash(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private int indexOf(long id) {
+        int mask = mIds.length - 1;
+        int i = hash(id) & mask;
+        while (mStates[i] != EMPTY) {
+            if (mIds[i] == id) return i;
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int insert(long id, int state, long packedProgress) {
+        // keep the load factor under 1/2 so probe sequences stay short
+        if ((mSize + 1) * 2 > mIds.length) resize(mIds.length * 2);
+
+        int mask = mIds.length - 1;
+        int i = hash(id) & mask;
+        while (mStates[i] != EMPTY) i = (i + 1) & mask;
+
+        mIds[i] = id;
+        mStates[i] = state;
+        mProgress[i] = packedProgress;
+        mViews[i] = null;
+        mSize++;
+        return i;
+    }
+
+    /**
+     * Backward shift deletion, entries following the removed one are moved back so lookups never
+     * stop early on a hole
+     */
+    private void removeAt(int index) {
+        int mask = mIds.length - 1;
+        int hole = index;
+        int i = (index + 1) & mask;
+        while (mStates[i] != EMPTY) {
+            int home = hash(mIds[i]) & mask;
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                mIds[hole] = mIds[i];
+                mStates[hole] = mStates[i];
+                mProgress[hole] = mProgress[i];
+                mViews[hole] = mViews[i];
+                hole = i;
+            }
+            i = (i + 1) & mask;
+        }
+
+        mStates[hole] = EMPTY;
+        mViews[hole] = null;
+        mSize--;
+    }
+
+    private void resize(int capacity) {
+        long[] ids = mIds;
+        int[] states = mStates;
+        long[] progress = mProgress;
+        DownloadButtonProgress[] views = mViews;
+
+        mIds = new long[capacity];
+        mStates = new int[capacity];
+        mProgress = new long[capacity];
+        mViews = new DownloadButtonProgress[capacity];
+
+        int mask = capacity - 1;
+        for (int j = 0; j < ids.length; j++) {
+            if (states[j] == EMPTY) continue;
+
+            int i = hash(ids[j]) & mask;
+            while (mStates[i] != EMPTY) i = (i + 1) & mask;
+            mIds[i] = ids[j];
+            mStates[i] = states[j];
+            mProgress[i] = progress[j];
+            mViews[i] = views[j];
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.github.abdularis.buttonprogress;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Fill levels of the chunks of a download fetched in parallel (e.g. HTTP range requests), shown
+ * while determinate by {@link DownloadProgressDrawable#setSegments(ProgressSegments)} as one arc
+ * per chunk, each chunk owning an equal slice of the ring.
+ *
+ * Levels live in a primitive array and can be set by index from any thread. Only the first change
+ * since the last draw posts a redraw to the main thread, so the chunks are drawn together at most
+ * once per frame however often they are updated.
+ */
+public final class ProgressSegments {
+
+    static final int MAX_LEVEL = 10000;
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    private final AtomicIntegerArray mLevels;
+    private final AtomicBoolean mChanged = new AtomicBoolean();
+    private volatile DownloadProgressDrawable mHost;
+
+    private final Runnable mInvalidateHost = new Runnable() {
+        @Override
+        public void run() {
+            DownloadProgressDrawable host = mHost;
+            if (host != null) host.onSegmentsChanged();
+        }
+    };
+
+    public ProgressSegments(int count) {
+        if (count <= 0) throw new IllegalArgumentException("count must be positive: " + count);
+        mLevels = new AtomicIntegerArray(count);
+    }
+
+    public int getCount() {
+        return mLevels.length();
+    }
+
+    /**
+     * Set the progress of the chunk at index, capped to [0, max], can be called from any thread
+     */
+    public void setProgress(int index, long current, long max) {
+        if (max <= 0) throw new IllegalArgumentException("max must be positive: " + max);
+
+        current = Math.max(0, Math.min(current, max));
+        int level = (int) (current * (double) MAX_LEVEL / max);
+        if (mLevels.getAndSet(index, level) != level && mChanged.compareAndSet(false, true)) {
+            sMainHandler.post(mInvalidateHost);
+        }
+    }
+
+    /**
+     * @return progress of the chunk at index, from 0 to 1
+     */
+    public float getFraction(int index) {
+        return (float) mLevels.get(index) / MAX_LEVEL;
+    }
+
+    int getLevel(int index) {
+        return mLevels.get(index);
+    }
+
+    /**
+     * Called by the host before reading the levels to draw them, so changes made from then on
+     * request another redraw
+     */
+    void onDraw() {
+        mChanged.set(false);
+    }
+
+    /**
+     * Main thread only, shown by a single drawable at a time
+     */
+    void setHost(DownloadProgressDrawable host) {
+        mHost = host;
+    }
+}
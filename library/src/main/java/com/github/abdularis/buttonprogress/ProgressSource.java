@@ -0,0 +1,40 @@
+package com.github.abdularis.buttonprogress;
+
+/**
+ * Publisher of transfer progress a {@link DownloadButtonProgress} can subscribe to, see
+ * {@link DownloadButtonProgress#subscribe(ProgressSource)}.
+ *
+ * Follows the java.util.concurrent.Flow rules (which are only available from API 30, see
+ * {@link FlowProgressSource}): the source calls {@link Subscriber#onSubscribe(Subscription)}
+ * first, then at most as many {@link Subscriber#onProgress(long, long)} as requested, then at
+ * most one of {@link Subscriber#onComplete()} or {@link Subscriber#onError(Throwable)}. Calls
+ * may come from any thread but never concurrently.
+ */
+public interface ProgressSource {
+
+    void subscribe(Subscriber subscriber);
+
+    interface Subscriber {
+        void onSubscribe(Subscription subscription);
+
+        /**
+         * @param current transferred amount, e.g. bytes
+         * @param max     total amount, must be positive. An update with an invalid max cancels
+         *                the subscription and is handled like {@link #onError(Throwable)}.
+         */
+        void onProgress(long current, long max);
+
+        void onComplete();
+
+        void onError(Throwable error);
+    }
+
+    interface Subscription {
+        /**
+         * Allow the source to send n more progress updates
+         */
+        void request(long n);
+
+        void cancel();
+    }
+}
@@ -0,0 +1,322 @@
+package com.github.abdularis.buttonprogress;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * State and progress of a download, safe to use from any thread and free of Android
+ * dependencies. {@link DownloadButtonProgress} observes one to render it.
+ *
+ * State, max progress and progress live in a single immutable snapshot and every change is a
+ * single compare-and-set of it, so concurrent callers (e.g. a cancel click and a download worker) never
+ * interleave into an invalid combination. Progress is only taken in {@link #STATE_DETERMINATE}
+ * and never exceeds the max progress, states only change along these transitions, each of them
+ * resetting the progress to 0:
+ * <pre>
+ * IDLE          -> INDETERMINATE, DETERMINATE, FINISHED
+ * INDETERMINATE -> IDLE, DETERMINATE, FINISHED
+ * DETERMINATE   -> IDLE, INDETERMINATE, FINISHED
+ * FINISHED      -> IDLE
+ * </pre>
+ * Rejected changes are never applied, they are reported by the return value and to the
+ * {@link Observer}. Moving to the current state is not a transition, it succeeds and changes
+ * nothing.
+ *
+ * The snapshot also numbers the transitions, so a transition and its number are applied by the
+ * same compare-and-set and the numbers follow the order the transitions were applied in. An
+ * observer notified on several threads can put them back in order. Applied changes allocate a new
+ * snapshot, unchanged and rejected ones allocate nothing.
+ */
+public final class ProgressStateMachine {
+
+    public static final int STATE_IDLE = 1;
+    public static final int STATE_INDETERMINATE = 2;
+    public static final int STATE_DETERMINATE = 3;
+    public static final int STATE_FINISHED = 4;
+
+    static final int DEF_MAX_PROGRESS = 100;
+    static final long ANY_RESET = -1;
+
+    // state - 1 in the 2 high bits, then max progress and progress on 31 bits each
+    private static final int PROGRESS_BITS = 31;
+    private static final long PROGRESS_MASK = (1L << PROGRESS_BITS) - 1;
+    private static final int STATE_SHIFT = 2 * PROGRESS_BITS;
+    private static final int KEEP_MAX_PROGRESS = -1;
+
+    // bit (1 << to) is set in TRANSITIONS[from] when from -> to is allowed
+    private static final int[] TRANSITIONS = {
+            0,
+            1 << STATE_INDETERMINATE | 1 << STATE_DETERMINATE | 1 << STATE_FINISHED,
+            1 << STATE_IDLE | 1 << STATE_DETERMINATE | 1 << STATE_FINISHED,
+            1 << STATE_IDLE | 1 << STATE_INDETERMINATE | 1 << STATE_FINISHED,
+            1 << STATE_IDLE,
+    };
+
+    private final AtomicReference<Snapshot> mSnapshot =
+            new AtomicReference<>(new Snapshot(pack(STATE_IDLE, DEF_MAX_PROGRESS, 0), 0, 0));
+    private final Observer mObserver;
+
+    public ProgressStateMachine() {
+        this(null);
+    }
+
+    /**
+     * @param observer notified of every applied and rejected change, may be null
+     */
+    public ProgressStateMachine(Observer observer) {
+        mObserver = observer;
+    }
+
+    /**
+     * @return whether the transition from -> to is allowed, false for the same state
+     */
+    public static boolean isTransitionAllowed(int from, int to) {
+        checkState(from);
+        checkState(to);
+        return (TRANSITIONS[from] & (1 << to)) != 0;
+    }
+
+    public int getState() {
+        return stateOf(snapshot());
+    }
+
+    public int getProgress() {
+        return progressOf(snapshot());
+    }
+
+    public int getMaxProgress() {
+        return maxProgressOf(snapshot());
+    }
+
+    /**
+     * @return number of the last applied transition or reset, see
+     * {@link Observer#onStateChanged(int, int, long)}
+     */
+    public long getSequence() {
+        return mSnapshot.get().mSequence;
+    }
+
+    /**
+     * @return sequence returned by the last {@link #reset(int, int, int)}
+     */
+    long getResetSequence() {
+        return mSnapshot.get().mResetSequence;
+    }
+
+    /**
+     * Move to state if the transition from the current state is allowed
+     *
+     * @return whether this machine is in state afterwards
+     */
+    public boolean transitionTo(int state) {
+        return transitionTo(state, ANY_RESET);
+    }
+
+    /**
+     * {@link #transitionTo(int)} unless this machine was reset since the reset numbered
+     * resetSequence, e.g. so that an update for a recycled button does not reach the item it was
+     * bound to since
+     *
+     * @return whether this machine is in state afterwards, false when it was reset
+     */
+    boolean transitionTo(int state, long resetSequence) {
+        checkState(state);
+        while (true) {
+            Snapshot current = mSnapshot.get();
+            if (resetSequence != ANY_RESET && resetSequence != current.mResetSequence) return false;
+            int from = stateOf(current.mWord);
+            if (from == state) return true;
+            if (!isTransitionAllowed(from, state)) {
+                if (mObserver != null) mObserver.onTransitionRejected(from, state);
+                return false;
+            }
+            Snapshot update = current.enter(state);
+            if (mSnapshot.compareAndSet(current, update)) {
+                if (mObserver != null) mObserver.onStateChanged(from, state, update.mSequence);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Move from expectedState to newState, does nothing when the current state is not
+     * expectedState, e.g. so that a worker finishing a download does not override a cancel that
+     * happened just before
+     *
+     * @return whether the transition was applied
+     */
+    public boolean compareAndTransition(int expectedState, int newState) {
+        checkState(newState);
+        if (!isTransitionAllowed(expectedState, newState)) {
+            if (mObserver != null) mObserver.onTransitionRejected(expectedState, newState);
+            return false;
+        }
+        while (true) {
+            Snapshot current = mSnapshot.get();
+            if (stateOf(current.mWord) != expectedState) return false;
+            Snapshot update = current.enter(newState);
+            if (mSnapshot.compareAndSet(current, update)) {
+                if (mObserver != null) mObserver.onStateChanged(expectedState, newState, update.mSequence);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Set the progress, capped to [0, max progress]. Rejected when not in
+     * {@link #STATE_DETERMINATE}.
+     *
+     * @return whether the progress was applied
+     */
+    public boolean setProgress(int progress) {
+        return updateProgress(progress, KEEP_MAX_PROGRESS);
+    }
+
+    /**
+     * Set both the progress and the max progress at once, see {@link #setProgress(int)}
+     */
+    public boolean setProgress(int progress, int maxProgress) {
+        checkMaxProgress(maxProgress);
+        return updateProgress(progress, maxProgress);
+    }
+
+    /**
+     * Set the max progress in any state, the progress is capped to it
+     */
+    public void setMaxProgress(int maxProgress) {
+        checkMaxProgress(maxProgress);
+        while (true) {
+            Snapshot current = mSnapshot.get();
+            int progress = Math.min(progressOf(current.mWord), maxProgress);
+            long update = pack(stateOf(current.mWord), maxProgress, progress);
+            if (update == current.mWord) return;
+            if (mSnapshot.compareAndSet(current, current.withWord(update))) {
+                if (mObserver != null) mObserver.onProgressChanged(progress, maxProgress);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Set every value as is, without checking the transition nor notifying the observer, used to
+     * restore a saved state. Progress is only kept in {@link #STATE_DETERMINATE}.
+     *
+     * @return sequence of this reset, transitions numbered up to it were made before
+     */
+    public long reset(int state, int progress, int maxProgress) {
+        checkState(state);
+        checkMaxProgress(maxProgress);
+        long word = pack(state, maxProgress, state == STATE_DETERMINATE ? clamp(progress, maxProgress) : 0);
+        while (true) {
+            Snapshot current = mSnapshot.get();
+            long sequence = current.mSequence + 1;
+            if (mSnapshot.compareAndSet(current, new Snapshot(word, sequence, sequence))) return sequence;
+        }
+    }
+
+    private boolean updateProgress(int progress, int maxProgress) {
+        while (true) {
+            Snapshot current = mSnapshot.get();
+            int state = stateOf(current.mWord);
+            if (state != STATE_DETERMINATE) {
+                if (mObserver != null) mObserver.onProgressRejected(state, progress);
+                return false;
+            }
+            int max = maxProgress == KEEP_MAX_PROGRESS ? maxProgressOf(current.mWord) : maxProgress;
+            int capped = clamp(progress, max);
+            long update = pack(STATE_DETERMINATE, max, capped);
+            if (update == current.mWord) return true;
+            if (mSnapshot.compareAndSet(current, current.withWord(update))) {
+                if (mObserver != null) mObserver.onProgressChanged(capped, max);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return state, max progress and progress read at once, see {@link #stateOf(long)},
+     * {@link #maxProgressOf(long)} and {@link #progressOf(long)}
+     */
+    long snapshot() {
+        return mSnapshot.get().mWord;
+    }
+
+    static int stateOf(long snapshot) {
+        return (int) (snapshot >>> STATE_SHIFT) + 1;
+    }
+
+    static int maxProgressOf(long snapshot) {
+        return (int) ((snapshot >>> PROGRESS_BITS) & PROGRESS_MASK);
+    }
+
+    static int progressOf(long snapshot) {
+        return (int) (snapshot & PROGRESS_MASK);
+    }
+
+    private static long pack(int state, int maxProgress, int progress) {
+        return (long) (state - 1) << STATE_SHIFT | (long) maxProgress << PROGRESS_BITS | progress;
+    }
+
+    private static int clamp(int progress, int maxProgress) {
+        return Math.max(0, Math.min(progress, maxProgress));
+    }
+
+    private static void checkState(int state) {
+        if (state < STATE_IDLE || state > STATE_FINISHED)
+            throw new IllegalArgumentException("Unknown state: " + state);
+    }
+
+    private static void checkMaxProgress(int maxProgress) {
+        if (maxProgress <= 0)
+            throw new IllegalArgumentException("max progress must be positive: " + maxProgress);
+    }
+
+    /**
+     * Values swapped at once by the compare-and-sets of the machine
+     */
+    private static final class Snapshot {
+
+        // state, max progress and progress, see pack
+        final long mWord;
+        // number of the last applied transition or reset, and of the last reset
+        final long mSequence;
+        final long mResetSequence;
+
+        Snapshot(long word, long sequence, long resetSequence) {
+            mWord = word;
+            mSequence = sequence;
+            mResetSequence = resetSequence;
+        }
+
+        /**
+         * @return snapshot after the next transition, entering state with a progress of 0
+         */
+        Snapshot enter(int state) {
+            return new Snapshot(pack(state, maxProgressOf(mWord), 0), mSequence + 1, mResetSequence);
+        }
+
+        Snapshot withWord(long word) {
+            return new Snapshot(word, mSequence, mResetSequence);
+        }
+    }
+
+    public interface Observer {
+        /**
+         * Called after an allowed transition, on the thread that made it. Transitions made on
+         * different threads may be notified out of order, sequence numbers them in the order they
+         * were applied. Numbers follow each other except after a {@link #reset(int, int, int)}.
+         */
+        void onStateChanged(int oldState, int newState, long sequence);
+
+        /**
+         * Called after the progress or the max progress changed, on the thread that changed it
+         */
+        void onProgressChanged(int progress, int maxProgress);
+
+        void onTransitionRejected(int state, int rejectedState);
+
+        /**
+         * Called when progress is set while not in {@link #STATE_DETERMINATE}
+         */
+        void onProgressRejected(int state, int rejectedProgress);
+    }
+}
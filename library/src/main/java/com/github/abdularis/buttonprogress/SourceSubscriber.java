@@ -0,0 +1,170 @@
+package com.github.abdularis.buttonprogress;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Shows the progress of a {@link ProgressSource} on a button, with backpressure: at most
+ * {@link #REQUEST_BATCH} updates are requested ahead, only the latest one is shown on the next
+ * frame and the ones consumed are requested again after that frame. A fast source is never sent
+ * more than {@link #REQUEST_BATCH} updates per frame, and has to wait while the main thread is
+ * busy instead of piling up updates for it.
+ *
+ * The button goes indeterminate when subscribed while idle, determinate on the first progress,
+ * finished on completion and idle on error or on an update with an invalid max. The subscription is cancelled as soon as the button
+ * is set idle or finished by someone else (e.g. the user clicked cancel), also while the source
+ * sends nothing.
+ */
+final class SourceSubscriber implements ProgressSource.Subscriber {
+
+    static final int REQUEST_BATCH = 16;
+
+    private static final String TAG = "SourceSubscriber";
+
+    private static final long NO_PROGRESS = -1;
+
+    private static final ProgressSource.Subscription CANCELLED = new ProgressSource.Subscription() {
+        @Override
+        public void request(long n) {
+        }
+
+        @Override
+        public void cancel() {
+        }
+    };
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    private final DownloadButtonProgress mButton;
+    private final ProgressStateMachine mStateMachine;
+    // transitions up to this one were made before subscribing
+    private final long mStartSequence;
+    private final AtomicReference<ProgressSource.Subscription> mSubscription = new AtomicReference<>();
+    // latest progress packed as by DownloadButtonProgress.packProgress, not shown yet
+    private final AtomicLong mLatest = new AtomicLong(NO_PROGRESS);
+    private final AtomicInteger mReceived = new AtomicInteger();
+
+    private final Runnable mPostFrame = new Runnable() {
+        @Override
+        public void run() {
+            mButton.runOnNextFrame(mApplyFrame);
+        }
+    };
+    private final Runnable mApplyFrame = new Runnable() {
+        @Override
+        public void run() {
+            applyLatest();
+        }
+    };
+
+    SourceSubscriber(DownloadButtonProgress button, ProgressStateMachine stateMachine) {
+        mButton = button;
+        mStateMachine = stateMachine;
+        mStartSequence = stateMachine.getSequence();
+    }
+
+    @Override
+    public void onSubscribe(ProgressSource.Subscription subscription) {
+        if (!mSubscription.compareAndSet(null, subscription)) {
+            // subscribed twice, or cancelled before the source subscribed
+            subscription.cancel();
+            return;
+        }
+        mStateMachine.compareAndTransition(ProgressStateMachine.STATE_IDLE, ProgressStateMachine.STATE_INDETERMINATE);
+        subscription.request(REQUEST_BATCH);
+    }
+
+    @Override
+    public void onProgress(long current, long max) {
+        if (isCancelled()) return;
+        if (max <= 0) {
+            // never throw from the source's own onProgress, stop it like a failed one instead
+            Log.w(TAG, "Cancelled source sending an invalid max: " + max);
+            ProgressSource.Subscription subscription = terminate(ProgressStateMachine.STATE_IDLE);
+            if (subscription != null) subscription.cancel();
+            return;
+        }
+
+        mReceived.incrementAndGet();
+        ButtonProgressMetrics.recordProgressReceived();
+        long packed = DownloadButtonProgress.packProgress(current, max);
+        if (mLatest.getAndSet(packed) == NO_PROGRESS) {
+            sMainHandler.post(mPostFrame);
+        }
+    }
+
+    @Override
+    public void onComplete() {
+        terminate(ProgressStateMachine.STATE_FINISHED);
+    }
+
+    @Override
+    public void onError(Throwable error) {
+        terminate(ProgressStateMachine.STATE_IDLE);
+    }
+
+    /**
+     * Stop showing the source and cancel it, the button is left in its current state
+     */
+    void cancel() {
+        ProgressSource.Subscription subscription = mSubscription.getAndSet(CANCELLED);
+        if (subscription != null) subscription.cancel();
+    }
+
+    /**
+     * Called by the button after each transition, on the thread that made it
+     */
+    void onStateChanged(int newState, long sequence) {
+        if ((newState == ProgressStateMachine.STATE_IDLE || newState == ProgressStateMachine.STATE_FINISHED)
+                && sequence > mStartSequence) {
+            cancel();
+        }
+    }
+
+    private boolean isCancelled() {
+        return mSubscription.get() == CANCELLED;
+    }
+
+    /**
+     * @return the subscription that was active, CANCELLED when already terminated
+     */
+    private ProgressSource.Subscription terminate(int state) {
+        ProgressSource.Subscription subscription = mSubscription.getAndSet(CANCELLED);
+        if (subscription == CANCELLED) return subscription;
+
+        int currState = mStateMachine.getState();
+        if (currState == ProgressStateMachine.STATE_INDETERMINATE || currState == ProgressStateMachine.STATE_DETERMINATE) {
+            // does not override a cancel made in between
+            mStateMachine.compareAndTransition(currState, state);
+        }
+        return subscription;
+    }
+
+    /**
+     * Main thread, once per frame with pending progress
+     */
+    private void applyLatest() {
+        long packed = mLatest.getAndSet(NO_PROGRESS);
+        ProgressSource.Subscription subscription = mSubscription.get();
+        if (subscription == CANCELLED) return;
+
+        int state = mStateMachine.getState();
+        if (state == ProgressStateMachine.STATE_IDLE || state == ProgressStateMachine.STATE_FINISHED) {
+            cancel();
+            return;
+        }
+        if (state == ProgressStateMachine.STATE_INDETERMINATE) {
+            mStateMachine.compareAndTransition(state, ProgressStateMachine.STATE_DETERMINATE);
+        }
+        mStateMachine.setProgress((int) packed, (int) (packed >>> 32));
+
+        // updates received after the latest one was taken may already be requested again
+        int received = mReceived.getAndSet(0);
+        if (received > 0) subscription.request(received);
+    }
+}
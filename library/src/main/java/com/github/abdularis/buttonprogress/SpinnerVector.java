@@ -0,0 +1,90 @@
+package com.github.abdularis.buttonprogress;
+
+import android.annotation.TargetApi;
+import android.content.res.Resources;
+import android.graphics.Canvas;
+import android.graphics.RectF;
+import android.graphics.drawable.AnimatedVectorDrawable;
+import android.os.Build;
+
+/**
+ * Indeterminate arc drawn by an {@link AnimatedVectorDrawable} turning it a full turn per
+ * {@link DownloadProgressDrawable#INDETERMINATE_PERIOD}. Since API 25 the animation of a vector
+ * drawn on a hardware canvas runs on the RenderThread, so the arc keeps turning while the main
+ * thread is busy and the main thread draws nothing per frame.
+ *
+ * The geometry of a vector is compiled in its resource: the arc is a 90 degrees sweep a fifth of
+ * the ring radius thick, only styles drawing that arc ({@link #matches}) can be spun by it. It is
+ * tinted with the indeterminate color, scaled to the ring, and rotated when started so it turns in
+ * phase with the spinners drawn from the {@link FrameClock}.
+ */
+@TargetApi(Build.VERSION_CODES.N_MR1)
+final class SpinnerVector {
+
+    // arc of the vector in its 48x48 viewport, starting at 12 o'clock
+    private static final float VIEWPORT_SIZE = 48f;
+    private static final float RING_RADIUS = 20f;
+    private static final float STROKE_WIDTH = 4f;
+    private static final int SWEEP_ANGLE = 90;
+    private static final float START_ANGLE = -90f;
+
+    private final AnimatedVectorDrawable mDrawable;
+    private final RectF mRect = new RectF();
+    // white, the color of the untinted vector
+    private int mColor = 0xFFFFFFFF;
+    private float mPhase;
+
+    SpinnerVector(Resources res) {
+        mDrawable = (AnimatedVectorDrawable) res.getDrawable(R.drawable.download_spinner, null).mutate();
+    }
+
+    static boolean isSupported(Canvas target) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.N_MR1 && target.isHardwareAccelerated();
+    }
+
+    /**
+     * @return whether the vector arc scaled to rect looks like an arc of sweepAngle degrees and
+     * strokeWidth pixels, within a pixel
+     */
+    static boolean matches(RectF rect, int sweepAngle, float strokeWidth) {
+        float vectorStrokeWidth = rect.width() / 2f * STROKE_WIDTH / RING_RADIUS;
+        return sweepAngle == SWEEP_ANGLE && Math.abs(vectorStrokeWidth - strokeWidth) <= 1f;
+    }
+
+    /**
+     * Draw the arc turning on rect, starting the animation if it is not running yet
+     *
+     * @param startAngle start angle of the arc drawn from the frame clock right now, the vector
+     *                   picks up from it when started
+     */
+    void draw(Canvas canvas, RectF rect, int color, float startAngle) {
+        if (!mRect.equals(rect)) {
+            mRect.set(rect);
+            // scale the vector so its ring lies on rect
+            float half = rect.width() / 2f * VIEWPORT_SIZE / RING_RADIUS / 2f;
+            mDrawable.setBounds(Math.round(rect.centerX() - half), Math.round(rect.centerY() - half),
+                    Math.round(rect.centerX() + half), Math.round(rect.centerY() + half));
+        }
+        if (mColor != color) {
+            mColor = color;
+            mDrawable.setTint(color);
+        }
+        if (!mDrawable.isRunning()) {
+            // the animation starts from 0 on the next RenderThread frame, about now
+            mPhase = startAngle - START_ANGLE;
+            mDrawable.start();
+        }
+        int count = canvas.save();
+        canvas.rotate(mPhase, rect.centerX(), rect.centerY());
+        mDrawable.draw(canvas);
+        canvas.restoreToCount(count);
+    }
+
+    boolean isRunning() {
+        return mDrawable.isRunning();
+    }
+
+    void stop() {
+        mDrawable.stop();
+    }
+}
@@ -0,0 +1,137 @@
+package com.github.abdularis.buttonprogress;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.graphics.RenderNode;
+import android.os.Build;
+
+/**
+ * Holds a pre rendered copy of the parts of a button that do not change between frames
+ * (background and center icon), so a frame only has to draw this layer and the progress arc.
+ *
+ * On API 29+ hardware accelerated canvases the layer is kept as a display list, otherwise it is
+ * rasterized into a reusable bitmap.
+ */
+abstract class StaticLayer {
+
+    final Rect mBounds = new Rect();
+
+    static StaticLayer create(Canvas target) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && target.isHardwareAccelerated()) {
+            return new RenderNodeLayer();
+        }
+        return new BitmapLayer();
+    }
+
+    /**
+     * @return whether this layer can be drawn on the given canvas, a layer created for a software
+     * canvas is not used on a hardware one and the other way around
+     */
+    abstract boolean isCompatible(Canvas target);
+
+    /**
+     * @return canvas to record the static content on, previous content is discarded. The canvas
+     * uses the same coordinates as the target canvas, content outside of bounds is clipped.
+     */
+    final Canvas beginRecording(Rect bounds) {
+        mBounds.set(bounds);
+        return onBeginRecording(bounds.width(), bounds.height());
+    }
+
+    abstract Canvas onBeginRecording(int width, int height);
+
+    abstract void endRecording();
+
+    /**
+     * Draw the recorded content at the bounds it was recorded with
+     */
+    abstract void draw(Canvas canvas);
+
+    abstract void release();
+
+    boolean hasBounds(Rect bounds) {
+        return mBounds.equals(bounds);
+    }
+
+    private static final class BitmapLayer extends StaticLayer {
+
+        private Bitmap mBitmap;
+        private final Canvas mCanvas = new Canvas();
+        private int mSaveCount;
+
+        @Override
+        boolean isCompatible(Canvas target) {
+            return Build.VERSION.SDK_INT < Build.VERSION_CODES.Q || !target.isHardwareAccelerated();
+        }
+
+        @Override
+        Canvas onBeginRecording(int width, int height) {
+            if (mBitmap == null || mBitmap.getWidth() != width || mBitmap.getHeight() != height) {
+                if (mBitmap != null) mBitmap.recycle();
+                mBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                mCanvas.setBitmap(mBitmap);
+            } else {
+                mBitmap.eraseColor(Color.TRANSPARENT);
+            }
+            mSaveCount = mCanvas.save();
+            mCanvas.translate(-mBounds.left, -mBounds.top);
+            return mCanvas;
+        }
+
+        @Override
+        void endRecording() {
+            mCanvas.restoreToCount(mSaveCount);
+        }
+
+        @Override
+        void draw(Canvas canvas) {
+            if (mBitmap != null) canvas.drawBitmap(mBitmap, mBounds.left, mBounds.top, null);
+        }
+
+        @Override
+        void release() {
+            if (mBitmap != null) {
+                mCanvas.setBitmap(null);
+                mBitmap.recycle();
+                mBitmap = null;
+            }
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.Q)
+    private static final class RenderNodeLayer extends StaticLayer {
+
+        private final RenderNode mNode = new RenderNode("DownloadButtonProgressStaticLayer");
+
+        @Override
+        boolean isCompatible(Canvas target) {
+            return target.isHardwareAccelerated();
+        }
+
+        @Override
+        Canvas onBeginRecording(int width, int height) {
+            mNode.setPosition(mBounds.left, mBounds.top, mBounds.right, mBounds.bottom);
+            Canvas canvas = mNode.beginRecording(width, height);
+            canvas.translate(-mBounds.left, -mBounds.top);
+            return canvas;
+        }
+
+        @Override
+        void endRecording() {
+            mNode.endRecording();
+        }
+
+        @Override
+        void draw(Canvas canvas) {
+            if (mNode.hasDisplayList()) canvas.drawRenderNode(mNode);
+        }
+
+        @Override
+        void release() {
+            mNode.discardDisplayList();
+        }
+    }
+}
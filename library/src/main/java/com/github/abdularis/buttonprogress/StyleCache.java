@@ -0,0 +1,163 @@
+package com.github.abdularis.buttonprogress;
+
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.content.res.TypedArray;
+import android.util.LruCache;
+import android.util.TypedValue;
+
+import java.util.Arrays;
+
+/**
+ * Process wide cache of the {@link ButtonProgressStyle}s built from layout attributes, so inflating
+ * many buttons with the same attributes (e.g. RecyclerView rows) parses them and resolves their
+ * drawables only once.
+ *
+ * Styles are keyed by the resolved values of the style attributes set on the view, theme and style
+ * references are already resolved by obtainStyledAttributes so two buttons with the same key
+ * always build the same style. Attributes that are not part of the style (state, progress, ...)
+ * are not part of the key. The cache is dropped when the resources configuration changes.
+ */
+final class StyleCache {
+
+    private static final int MAX_SIZE = 32;
+
+    private static final int[] DYNAMIC_ATTRS = {
+            R.styleable.DownloadButtonProgress_state,
+            R.styleable.DownloadButtonProgress_currentProgress,
+            R.styleable.DownloadButtonProgress_maxProgress,
+            R.styleable.DownloadButtonProgress_layerCacheEnabled,
+            R.styleable.DownloadButtonProgress_smoothProgressEnabled,
+            R.styleable.DownloadButtonProgress_spinnerMaxFrameRate,
+            R.styleable.DownloadButtonProgress_hardwareSpinEnabled,
+            R.styleable.DownloadButtonProgress_saveDynamicStateOnly,
+    };
+
+    private static StyleCache sInstance;
+
+    private final LruCache<Key, ButtonProgressStyle> mCache = new LruCache<>(MAX_SIZE);
+    private final Key mLookupKey = new Key();
+    private final TypedValue mValue = new TypedValue();
+    private final Configuration mConfiguration = new Configuration();
+    private final boolean[] mDynamicAttrs = new boolean[R.styleable.DownloadButtonProgress.length];
+    private ButtonProgressStyle mDefaultStyle;
+    private boolean mEnabled = true;
+
+    static synchronized StyleCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new StyleCache();
+        }
+        return sInstance;
+    }
+
+    private StyleCache() {
+        for (int index : DYNAMIC_ATTRS) mDynamicAttrs[index] = true;
+    }
+
+    /**
+     * @return style of a button inflated with the given DownloadButtonProgress attributes
+     */
+    synchronized ButtonProgressStyle getStyle(Resources res, TypedArray a) {
+        if (!mEnabled) return ButtonProgressStyle.fromAttributes(res, a);
+
+        checkConfiguration(res);
+        mLookupKey.clear();
+        for (int i = 0, count = a.getIndexCount(); i < count; i++) {
+            int index = a.getIndex(i);
+            if (mDynamicAttrs[index] || !a.getValue(index, mValue)) continue;
+            mLookupKey.add(index, mValue);
+        }
+
+        ButtonProgressStyle style = mCache.get(mLookupKey);
+        if (style == null) {
+            style = ButtonProgressStyle.fromAttributes(res, a);
+            mCache.put(mLookupKey.copy(), style);
+        }
+        return style;
+    }
+
+    /**
+     * @return style of a button created without attributes
+     */
+    synchronized ButtonProgressStyle getDefaultStyle(Resources res) {
+        if (!mEnabled) return new ButtonProgressStyle.Builder(res).build();
+
+        checkConfiguration(res);
+        if (mDefaultStyle == null) {
+            mDefaultStyle = new ButtonProgressStyle.Builder(res).build();
+        }
+        return mDefaultStyle;
+    }
+
+    /**
+     * Disabled, every call builds a new style, used to measure the uncached inflation
+     */
+    synchronized void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+        if (!enabled) clear();
+    }
+
+    synchronized void clear() {
+        mCache.evictAll();
+        mDefaultStyle = null;
+    }
+
+    private void checkConfiguration(Resources res) {
+        Configuration configuration = res.getConfiguration();
+        if (!mConfiguration.equals(configuration)) {
+            clear();
+            mConfiguration.setTo(configuration);
+        }
+    }
+
+    private static final class Key {
+        // attribute index, value type, data, resource id and asset cookie of every style attribute
+        private static final int INTS_PER_ATTR = 5;
+
+        int[] mValues = new int[INTS_PER_ATTR * 8];
+        int mSize;
+
+        void clear() {
+            mSize = 0;
+        }
+
+        void add(int index, TypedValue value) {
+            if (mSize + INTS_PER_ATTR > mValues.length) {
+                mValues = Arrays.copyOf(mValues, mValues.length * 2);
+            }
+            mValues[mSize++] = index;
+            mValues[mSize++] = value.type;
+            mValues[mSize++] = value.data;
+            mValues[mSize++] = value.resourceId;
+            mValues[mSize++] = value.assetCookie;
+        }
+
+        Key copy() {
+            Key key = new Key();
+            key.mValues = Arrays.copyOf(mValues, mSize);
+            key.mSize = mSize;
+            return key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            if (mSize != key.mSize) return false;
+            for (int i = 0; i < mSize; i++) {
+                if (mValues[i] != key.mValues[i]) return false;
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = 1;
+            for (int i = 0; i < mSize; i++) {
+                result = 31 * result + mValues[i];
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.github.abdularis.buttonprogress;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the sums of concurrently updated transfers, that only requested progress is sent, that
+ * the source completes once sealed and every remaining transfer completed, and that it has a
+ * single subscriber.
+ */
+public class AggregateProgressTest {
+
+    private static final int TRANSFERS = 64;
+    private static final int CHUNKS = 10000;
+
+    @Test
+    public void sumsConcurrentTransfersExactly() throws InterruptedException {
+        final AggregateProgress aggregate = new AggregateProgress();
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        aggregate.subscribe(subscriber);
+        subscriber.mSubscription.request(Long.MAX_VALUE / 2);
+
+        final CountDownLatch done = new CountDownLatch(TRANSFERS);
+        for (int i = 0; i < TRANSFERS; i++) {
+            final AggregateProgress.Transfer transfer = aggregate.addTransfer((long) CHUNKS * Integer.MAX_VALUE);
+            new Thread() {
+                @Override
+                public void run() {
+                    for (int chunk = 0; chunk < CHUNKS; chunk++) {
+                        transfer.addBytes(Integer.MAX_VALUE);
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        done.await();
+
+        long expected = (long) TRANSFERS * CHUNKS * Integer.MAX_VALUE;
+        assertEquals(expected, aggregate.getBytesDone());
+        assertEquals(expected, aggregate.getTotalBytes());
+        assertFalse(aggregate.isFinished());
+        assertEquals(0, subscriber.mCompleted.get());
+        assertEquals(expected, subscriber.mLastCurrent.get());
+    }
+
+    @Test
+    public void sendsOnlyRequestedProgress() {
+        AggregateProgress aggregate = new AggregateProgress();
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        aggregate.subscribe(subscriber);
+        AggregateProgress.Transfer transfer = aggregate.addTransfer(1000);
+
+        transfer.addBytes(10);
+        assertEquals(0, subscriber.mProgressCount.get());
+
+        subscriber.mSubscription.request(1);
+        transfer.addBytes(10);
+        transfer.addBytes(10);
+        assertEquals(1, subscriber.mProgressCount.get());
+
+        // changes made without demand are sent as soon as it is renewed
+        subscriber.mSubscription.request(1);
+        assertEquals(2, subscriber.mProgressCount.get());
+        assertEquals(30, subscriber.mLastCurrent.get());
+        assertEquals(1000, subscriber.mLastMax.get());
+    }
+
+    @Test
+    public void completesWhenRemainingTransfersComplete() {
+        AggregateProgress aggregate = new AggregateProgress();
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        aggregate.subscribe(subscriber);
+
+        List<AggregateProgress.Transfer> transfers = new ArrayList<>();
+        for (int i = 0; i < 3; i++) transfers.add(aggregate.addTransfer(100));
+        transfers.get(0).addBytes(40);
+        transfers.get(0).complete();
+        transfers.get(1).addBytes(70);
+        transfers.get(1).remove();
+        assertEquals(2, aggregate.getTransferCount());
+        assertEquals(100, aggregate.getBytesDone());
+        assertEquals(200, aggregate.getTotalBytes());
+
+        // added mid-flight, size not known yet
+        AggregateProgress.Transfer late = aggregate.addTransfer(0);
+        late.addBytes(50);
+        late.complete();
+        aggregate.seal();
+        assertFalse(aggregate.isFinished());
+        transfers.get(2).complete();
+
+        assertTrue(aggregate.isFinished());
+        assertEquals(1, subscriber.mCompleted.get());
+        assertEquals(250, aggregate.getBytesDone());
+        assertEquals(250, aggregate.getTotalBytes());
+    }
+
+    @Test
+    public void completesOnlyOnceSealed() {
+        AggregateProgress aggregate = new AggregateProgress();
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        aggregate.subscribe(subscriber);
+
+        // each transfer completes before the next one is added
+        for (int i = 0; i < 3; i++) {
+            AggregateProgress.Transfer transfer = aggregate.addTransfer(100);
+            transfer.addBytes(100);
+            transfer.complete();
+            assertFalse(aggregate.isFinished());
+        }
+        assertEquals(0, subscriber.mCompleted.get());
+
+        aggregate.seal();
+        assertTrue(aggregate.isFinished());
+        assertEquals(1, subscriber.mCompleted.get());
+        try {
+            aggregate.addTransfer(100);
+            fail("added after seal");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void rejectsSecondSubscriber() {
+        AggregateProgress aggregate = new AggregateProgress();
+        RecordingSubscriber first = new RecordingSubscriber();
+        RecordingSubscriber second = new RecordingSubscriber();
+        aggregate.subscribe(first);
+        aggregate.subscribe(second);
+        assertTrue(second.mError instanceof IllegalStateException);
+
+        first.mSubscription.request(1);
+        aggregate.addTransfer(100).addBytes(10);
+        assertEquals(1, first.mProgressCount.get());
+        assertEquals(0, second.mProgressCount.get());
+
+        // taken again once the first one cancelled
+        first.mSubscription.cancel();
+        RecordingSubscriber third = new RecordingSubscriber();
+        aggregate.subscribe(third);
+        third.mSubscription.request(1);
+        assertEquals(null, third.mError);
+        assertEquals(1, third.mProgressCount.get());
+    }
+
+    private static class RecordingSubscriber implements ProgressSource.Subscriber {
+        ProgressSource.Subscription mSubscription;
+        final AtomicInteger mProgressCount = new AtomicInteger();
+        final AtomicLong mLastCurrent = new AtomicLong();
+        final AtomicLong mLastMax = new AtomicLong();
+        final AtomicInteger mCompleted = new AtomicInteger();
+        volatile Throwable mError;
+
+        @Override
+        public void onSubscribe(ProgressSource.Subscription subscription) {
+            mSubscription = subscription;
+        }
+
+        @Override
+        public void onProgress(long current, long max) {
+            mProgressCount.incrementAndGet();
+            mLastCurrent.set(current);
+            mLastMax.set(max);
+        }
+
+        @Override
+        public void onComplete() {
+            mCompleted.incrementAndGet();
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            mError = error;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.github.abdularis.buttonprogress;
+
+import org.junit.Test;
+
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that listeners are kept once with their executor and that changes never affect an array
+ * being dispatched.
+ */
+public class ListenerListTest {
+
+    private static final Executor EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Test
+    public void addingAgainOnlyChangesExecutor() {
+        ListenerList<String> list = new ListenerList<>();
+        list.add("a", null);
+        list.add("b", null);
+        list.add("a", EXECUTOR);
+
+        ListenerList.Entry<String>[] entries = list.entries();
+        assertEquals(2, entries.length);
+        assertEquals("a", entries[0].listener());
+        assertSame(EXECUTOR, entries[0].executor());
+        assertNull(entries[1].executor());
+    }
+
+    @Test
+    public void changesDoNotAffectDispatchedEntries() {
+        ListenerList<String> list = new ListenerList<>();
+        list.add("a", null);
+        list.add("b", null);
+        list.add("c", null);
+
+        ListenerList.Entry<String>[] dispatched = list.entries();
+        list.remove("b");
+        list.add("d", null);
+
+        assertEquals(3, dispatched.length);
+        assertEquals("b", dispatched[1].listener());
+        ListenerList.Entry<String>[] entries = list.entries();
+        assertEquals(3, entries.length);
+        assertEquals("a", entries[0].listener());
+        assertEquals("c", entries[1].listener());
+        assertEquals("d", entries[2].listener());
+
+        list.remove("a");
+        list.remove("c");
+        list.remove("d");
+        assertEquals(0, list.entries().length);
+    }
+}
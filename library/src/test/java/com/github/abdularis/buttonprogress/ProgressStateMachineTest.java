@@ -0,0 +1,318 @@
+package com.github.abdularis.buttonprogress;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the transition table, the progress rules and that concurrent callers never apply an
+ * invalid change nor lose a transition, and that transitions are numbered in the order they were
+ * applied.
+ */
+public class ProgressStateMachineTest {
+
+    private static final int THREADS = 8;
+    private static final int OPERATIONS_PER_THREAD = 200000;
+    private static final int RACES = 2000;
+
+    @Test
+    public void appliesOnlyAllowedTransitions() {
+        int[][] allowed = {
+                {},
+                {ProgressStateMachine.STATE_INDETERMINATE, ProgressStateMachine.STATE_DETERMINATE, ProgressStateMachine.STATE_FINISHED},
+                {ProgressStateMachine.STATE_IDLE, ProgressStateMachine.STATE_DETERMINATE, ProgressStateMachine.STATE_FINISHED},
+                {ProgressStateMachine.STATE_IDLE, ProgressStateMachine.STATE_INDETERMINATE, ProgressStateMachine.STATE_FINISHED},
+                {ProgressStateMachine.STATE_IDLE},
+        };
+        for (int from = ProgressStateMachine.STATE_IDLE; from <= ProgressStateMachine.STATE_FINISHED; from++) {
+            for (int to = ProgressStateMachine.STATE_IDLE; to <= ProgressStateMachine.STATE_FINISHED; to++) {
+                boolean expected = contains(allowed[from], to);
+                assertEquals(from + " -> " + to, expected, ProgressStateMachine.isTransitionAllowed(from, to));
+
+                RecordingObserver observer = new RecordingObserver();
+                ProgressStateMachine machine = new ProgressStateMachine(observer);
+                machine.reset(from, 0, 100);
+
+                assertEquals(expected || from == to, machine.transitionTo(to));
+                assertEquals(expected || from == to ? to : from, machine.getState());
+                assertEquals(expected ? 1 : 0, observer.mStateChanges);
+                assertEquals(expected || from == to ? 0 : 1, observer.mRejectedTransitions);
+            }
+        }
+    }
+
+    @Test
+    public void takesProgressOnlyWhileDeterminate() {
+        RecordingObserver observer = new RecordingObserver();
+        ProgressStateMachine machine = new ProgressStateMachine(observer);
+
+        assertFalse(machine.setProgress(10));
+        assertEquals(0, machine.getProgress());
+        assertEquals(1, observer.mRejectedProgress);
+
+        machine.transitionTo(ProgressStateMachine.STATE_DETERMINATE);
+        assertTrue(machine.setProgress(150));
+        assertEquals(100, machine.getProgress());
+
+        assertTrue(machine.setProgress(300, 1000));
+        assertEquals(300, machine.getProgress());
+        assertEquals(1000, machine.getMaxProgress());
+
+        machine.setMaxProgress(200);
+        assertEquals(200, machine.getProgress());
+
+        machine.transitionTo(ProgressStateMachine.STATE_FINISHED);
+        assertEquals(0, machine.getProgress());
+        assertEquals(200, machine.getMaxProgress());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownState() {
+        new ProgressStateMachine().transitionTo(5);
+    }
+
+    @Test
+    public void onlyOneOfCancelAndFinishWins() throws Exception {
+        final ProgressStateMachine machine = new ProgressStateMachine();
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        final boolean[] results = new boolean[2];
+
+        for (int race = 0; race < RACES; race++) {
+            machine.reset(ProgressStateMachine.STATE_DETERMINATE, 50, 100);
+            Thread cancel = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    await(barrier);
+                    results[0] = machine.compareAndTransition(ProgressStateMachine.STATE_DETERMINATE, ProgressStateMachine.STATE_IDLE);
+                }
+            });
+            Thread finish = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    await(barrier);
+                    results[1] = machine.compareAndTransition(ProgressStateMachine.STATE_DETERMINATE, ProgressStateMachine.STATE_FINISHED);
+                }
+            });
+            cancel.start();
+            finish.start();
+            cancel.join();
+            finish.join();
+
+            assertTrue(results[0] != results[1]);
+            assertEquals(results[0] ? ProgressStateMachine.STATE_IDLE : ProgressStateMachine.STATE_FINISHED, machine.getState());
+        }
+    }
+
+    @Test
+    public void concurrentCallersNeverBreakInvariants() throws Exception {
+        final RecordingObserver observer = new RecordingObserver();
+        final ProgressStateMachine machine = new ProgressStateMachine(observer);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicReference<String> violation = new AtomicReference<>();
+
+        Thread[] writers = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final Random random = new Random(t);
+            writers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    awaitLatch(start);
+                    for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                        switch (random.nextInt(4)) {
+                            case 0: machine.transitionTo(1 + random.nextInt(4)); break;
+                            case 1: machine.setProgress(random.nextInt(2000)); break;
+                            case 2: machine.setProgress(random.nextInt(2000), 1 + random.nextInt(1000)); break;
+                            default: machine.setMaxProgress(1 + random.nextInt(1000)); break;
+                        }
+                    }
+                }
+            });
+            writers[t].start();
+        }
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                awaitLatch(start);
+                while (running.get()) {
+                    long snapshot = machine.snapshot();
+                    int state = ProgressStateMachine.stateOf(snapshot);
+                    int progress = ProgressStateMachine.progressOf(snapshot);
+                    int max = ProgressStateMachine.maxProgressOf(snapshot);
+                    if (max <= 0 || progress < 0 || progress > max
+                            || (state != ProgressStateMachine.STATE_DETERMINATE && progress != 0)) {
+                        violation.compareAndSet(null, "state " + state + " progress " + progress + "/" + max);
+                    }
+                }
+            }
+        });
+        reader.start();
+
+        start.countDown();
+        for (Thread writer : writers) writer.join();
+        running.set(false);
+        reader.join();
+
+        assertEquals(null, violation.get());
+        assertEquals(null, observer.mInvalidTransition);
+        // every state is left as many times as it is entered, except the initial and final ones
+        for (int state = ProgressStateMachine.STATE_IDLE; state <= ProgressStateMachine.STATE_FINISHED; state++) {
+            int expected = (machine.getState() == state ? 1 : 0) - (state == ProgressStateMachine.STATE_IDLE ? 1 : 0);
+            assertEquals("state " + state, expected, observer.mEntered.get(state) - observer.mExited.get(state));
+        }
+    }
+
+    @Test
+    public void sequenceOrdersConcurrentTransitions() throws Exception {
+        final RecordingObserver observer = new RecordingObserver();
+        final ProgressStateMachine machine = new ProgressStateMachine(observer);
+        long start = machine.reset(ProgressStateMachine.STATE_IDLE, 0, 100);
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        Thread[] writers = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final Random random = new Random(t);
+            writers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    awaitLatch(latch);
+                    for (int i = 0; i < OPERATIONS_PER_THREAD / 10; i++) {
+                        machine.transitionTo(1 + random.nextInt(4));
+                    }
+                }
+            });
+            writers[t].start();
+        }
+        latch.countDown();
+        for (Thread writer : writers) writer.join();
+
+        // put back in sequence order, the transitions chain from the reset state to the final one
+        int state = ProgressStateMachine.STATE_IDLE;
+        long expected = start + 1;
+        for (Map.Entry<Long, int[]> transition : observer.mTransitions.entrySet()) {
+            assertEquals(expected++, (long) transition.getKey());
+            assertEquals(state, transition.getValue()[0]);
+            state = transition.getValue()[1];
+        }
+        assertEquals(machine.getSequence(), expected - 1);
+        assertEquals(machine.getState(), state);
+    }
+
+    @Test
+    public void sequenceOrdersTransitionsRacingWithProgressAndResetChecks() throws Exception {
+        final RecordingObserver observer = new RecordingObserver();
+        final ProgressStateMachine machine = new ProgressStateMachine(observer);
+        final long start = machine.reset(ProgressStateMachine.STATE_IDLE, 0, 100);
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        Thread[] writers = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final Random random = new Random(t);
+            writers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    awaitLatch(latch);
+                    for (int i = 0; i < OPERATIONS_PER_THREAD / 10; i++) {
+                        switch (random.nextInt(5)) {
+                            case 0: machine.transitionTo(1 + random.nextInt(4)); break;
+                            case 1: machine.transitionTo(1 + random.nextInt(4), start); break;
+                            case 2: machine.compareAndTransition(1 + random.nextInt(4), 1 + random.nextInt(4)); break;
+                            case 3: machine.setProgress(random.nextInt(2000), 1 + random.nextInt(1000)); break;
+                            default: machine.setMaxProgress(1 + random.nextInt(1000)); break;
+                        }
+                    }
+                }
+            });
+            writers[t].start();
+        }
+        latch.countDown();
+        for (Thread writer : writers) writer.join();
+
+        int state = ProgressStateMachine.STATE_IDLE;
+        long expected = start + 1;
+        for (Map.Entry<Long, int[]> transition : observer.mTransitions.entrySet()) {
+            assertEquals(expected++, (long) transition.getKey());
+            assertEquals(state, transition.getValue()[0]);
+            state = transition.getValue()[1];
+        }
+        assertEquals(machine.getSequence(), expected - 1);
+        assertEquals(machine.getState(), state);
+        assertEquals(start, machine.getResetSequence());
+
+        // a transition for the reset superseded by another one is dropped
+        machine.reset(ProgressStateMachine.STATE_DETERMINATE, 10, 100);
+        assertFalse(machine.transitionTo(ProgressStateMachine.STATE_IDLE, start));
+        assertEquals(ProgressStateMachine.STATE_DETERMINATE, machine.getState());
+        assertEquals(10, machine.getProgress());
+    }
+
+    private static boolean contains(int[] values, int value) {
+        for (int v : values) {
+            if (v == value) return true;
+        }
+        return false;
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void awaitLatch(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static class RecordingObserver implements ProgressStateMachine.Observer {
+
+        final AtomicIntegerArray mEntered = new AtomicIntegerArray(ProgressStateMachine.STATE_FINISHED + 1);
+        final AtomicIntegerArray mExited = new AtomicIntegerArray(ProgressStateMachine.STATE_FINISHED + 1);
+        final Map<Long, int[]> mTransitions = new ConcurrentSkipListMap<>();
+        volatile String mInvalidTransition;
+        int mStateChanges;
+        int mRejectedTransitions;
+        int mRejectedProgress;
+
+        @Override
+        public void onStateChanged(int oldState, int newState, long sequence) {
+            mTransitions.put(sequence, new int[]{oldState, newState});
+            if (!ProgressStateMachine.isTransitionAllowed(oldState, newState)) {
+                mInvalidTransition = oldState + " -> " + newState;
+            }
+            mExited.incrementAndGet(oldState);
+            mEntered.incrementAndGet(newState);
+            mStateChanges++;
+        }
+
+        @Override
+        public void onProgressChanged(int progress, int maxProgress) {
+        }
+
+        @Override
+        public void onTransitionRejected(int state, int rejectedState) {
+            mRejectedTransitions++;
+        }
+
+        @Override
+        public void onProgressRejected(int state, int rejectedProgress) {
+            mRejectedProgress++;
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package com.github.abdularis.sample
 
 import android.os.Bundle
-import android.os.Handler
 import android.util.Log
 import android.view.View
 import android.widget.TextView
@@ -46,7 +45,7 @@ class MainActivity : AppCompatActivity() {
     private fun setListenerFor(downloadButtonProgress: DownloadButtonProgress) {
         downloadButtonProgress.addOnClickListener(object : DownloadButtonProgress.OnClickListener {
             override fun onIdleButtonClick(view: View) {
-                Thread(SampleTask(Handler(), downloadButtonProgress)).start()
+                Thread(SampleTask(downloadButtonProgress)).start()
             }
 
             override fun onCancelButtonClick(view: View) {
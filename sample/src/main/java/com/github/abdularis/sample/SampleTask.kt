@@ -1,13 +1,11 @@
 package com.github.abdularis.sample
 
-import android.os.Handler
 import com.github.abdularis.buttonprogress.DownloadButtonProgress
 
 /**
  * Created by abdularis on 07/01/18.
  */
 internal class SampleTask(
-    private val handler: Handler,
     private val btnProgress: DownloadButtonProgress
 ) : Runnable {
 
@@ -15,39 +13,17 @@ internal class SampleTask(
 
     override fun run() {
         try {
-            setBtnIndeterminate()
+            btnProgress.publishState(DownloadButtonProgress.STATE_INDETERMINATE)
             Thread.sleep(2000)
-            setBtnDeterminate()
+            btnProgress.publishState(DownloadButtonProgress.STATE_DETERMINATE)
             while (progress <= 100) {
                 Thread.sleep(30)
                 progress++
-                setBtnProgress()
+                btnProgress.publishProgress(progress.toLong(), 100)
             }
-            setBtnFinish()
+            btnProgress.publishState(DownloadButtonProgress.STATE_FINISHED)
         } catch (e: InterruptedException) {
             e.printStackTrace()
         }
     }
-
-    private fun setBtnIndeterminate() {
-        handler.post {
-            btnProgress.setIndeterminate()
-        }
-    }
-
-    private fun setBtnDeterminate() {
-        handler.post {
-            btnProgress.setDeterminate()
-        }
-    }
-
-    private fun setBtnProgress() {
-        handler.post { btnProgress.currentProgress = progress }
-    }
-
-    private fun setBtnFinish() {
-        handler.post {
-            btnProgress.setFinish()
-        }
-    }
-}
\ No newline at end of file
+}